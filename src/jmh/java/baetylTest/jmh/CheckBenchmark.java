@@ -0,0 +1,74 @@
+package baetylTest.jmh;
+
+import baetylTest.utils.CheckCommon;
+import baetylTest.utils.Converter;
+import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.msg.EdgeDeviceNestMsg;
+import baetylTest.utils.msg.EdgeDeviceSimpleMsg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Result checks run after every pub/sub case, on size msgs: nested rule msgs and a pub/sub msg list
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CheckBenchmark {
+
+    @Param({"10", "1000"})
+    public int size;
+
+    private Map<String, Object> expectedMap;
+    private Map<String, Object> actualMap;
+    private List<String> pubMessages;
+    private List<String> subMessages;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, Object> nestMsgs = new HashMap<String, Object>();
+        for (int i = 0; i < size; i++) {
+            EdgeDeviceSimpleMsg nestMsg = new EdgeDeviceSimpleMsg("device" + i, "data" + i);
+            nestMsg.setValue(i);
+            nestMsgs.put("msg" + i, new EdgeDeviceNestMsg("key" + i, "value" + i, nestMsg));
+        }
+        String json = Converter.modelToJson(nestMsgs);
+        expectedMap = Converter.jsonToModel(json, Map.class);
+        actualMap = Converter.jsonToModel(json, Map.class);
+
+        pubMessages = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            pubMessages.add("msg_" + i);
+        }
+        subMessages = new ArrayList<String>(pubMessages);
+    }
+
+    @Benchmark
+    public void checkMapEquals() throws Exception {
+        CheckCommon.checkMapEquals(expectedMap, actualMap);
+    }
+
+    @Benchmark
+    public void checkPubAndSubResult() {
+        PubSubCommon.checkPubAndSubResult(pubMessages, subMessages, 1);
+    }
+}
@@ -0,0 +1,113 @@
+package baetylTest.jmh;
+
+import baetylTest.utils.Converter;
+import baetylTest.utils.msg.EdgeDeviceNestMsg;
+import baetylTest.utils.msg.EdgeDeviceSimpleMsg;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converter paths before and after the reader/writer registry, on a nested rule msg.
+ *
+ * The mapper* methods are the old paths: the shared ObjectMapper looked up per call, and a new ObjectMapper per
+ * call for the deprecated without null methods.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConverterBenchmark {
+
+    private EdgeDeviceNestMsg msg;
+    private String json;
+    private byte[] jsonBytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        EdgeDeviceSimpleMsg nestMsg = new EdgeDeviceSimpleMsg("device", "data");
+        nestMsg.setValue(12);
+        nestMsg.setBoolValue(true);
+        msg = new EdgeDeviceNestMsg("key", "value", nestMsg);
+        json = Converter.modelToJson(msg);
+        jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public EdgeDeviceNestMsg mapperReadModel() throws Exception {
+        return Converter.om.readValue(json, EdgeDeviceNestMsg.class);
+    }
+
+    @Benchmark
+    public EdgeDeviceNestMsg jsonToModel() throws Exception {
+        return Converter.jsonToModel(json, EdgeDeviceNestMsg.class);
+    }
+
+    @Benchmark
+    public EdgeDeviceNestMsg bytesToModel() throws Exception {
+        return Converter.bytesToModel(jsonBytes, EdgeDeviceNestMsg.class);
+    }
+
+    @Benchmark
+    public String mapperWriteModel() throws Exception {
+        return Converter.om.writeValueAsString(msg);
+    }
+
+    @Benchmark
+    public String modelToJson() throws Exception {
+        return Converter.modelToJson(msg);
+    }
+
+    @Benchmark
+    public byte[] modelToBytes() throws Exception {
+        return Converter.modelToBytes(msg);
+    }
+
+    @Benchmark
+    public Map mapperReadMap() throws Exception {
+        return Converter.om.readValue(json, Map.class);
+    }
+
+    @Benchmark
+    public Map<String, Object> bytesToMap() throws Exception {
+        return Converter.bytesToMap(jsonBytes);
+    }
+
+    @Benchmark
+    public Map mapperModelToMap() throws Exception {
+        return Converter.om.readValue(Converter.om.writeValueAsString(msg), Map.class);
+    }
+
+    @Benchmark
+    public Map<String, Object> modelToMap() throws Exception {
+        return Converter.modelToMap(msg);
+    }
+
+    @Benchmark
+    public String mapperPerCallWithoutNull() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.setSerializationInclusion(Include.NON_NULL);
+        return objectMapper.writeValueAsString(msg);
+    }
+
+    @Benchmark
+    public String modelToJsonWithoutNull() throws Exception {
+        return Converter.modelToJsonWithoutNull(msg);
+    }
+}
@@ -0,0 +1,74 @@
+package baetylTest.jmh;
+
+import baetylTest.utils.client.PubSubCallback;
+import baetylTest.utils.perf.PayloadSource;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Receive path of the checking subscribers, for plain and latency enveloped payloads.
+ *
+ * Received msgs are drained every DRAIN_EVERY calls, as a checking test would, so the queues stay small.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PubSubCallbackBenchmark {
+
+    private static final int DRAIN_EVERY = 1024;
+    private static final String TOPIC = "jmh/callback";
+
+    @Param({"64", "4096"})
+    public int payloadSize;
+
+    private PubSubCallback callback;
+    private MqttMessage plainMessage;
+    private MqttMessage envelopedMessage;
+    private int calls;
+
+    @Setup
+    public void setUp() {
+        callback = new PubSubCallback(false);
+        byte[] plain = new byte[payloadSize];
+        for (int i = 0; i < plain.length; i++) {
+            plain[i] = (byte) ('a' + i % 26);
+        }
+        plainMessage = new MqttMessage(plain);
+        envelopedMessage = new MqttMessage(new PayloadSource(payloadSize, 1).next(System.nanoTime()));
+    }
+
+    @Benchmark
+    public void messageArrivedPlain() throws Exception {
+        callback.messageArrived(TOPIC, plainMessage);
+        drain();
+    }
+
+    @Benchmark
+    public void messageArrivedEnveloped() throws Exception {
+        callback.messageArrived(TOPIC, envelopedMessage);
+        drain();
+    }
+
+    private void drain() {
+        if (++calls % DRAIN_EVERY == 0) {
+            callback.clear();
+            callback.getRawMqttMsgReceiveList();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package baetylTest.jmh;
+
+import baetylTest.utils.client.RandomNameHolder;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Random client ids, topics and payloads of the load clients
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RandomNameHolderBenchmark {
+
+    @Param({"16", "1024"})
+    public int length;
+
+    @Benchmark
+    public String getRandomString() {
+        return RandomNameHolder.getRandomString(length);
+    }
+
+    @Benchmark
+    public String getRandomStringBesideNumChar() {
+        return RandomNameHolder.getRandomString(length, "-", "_");
+    }
+}
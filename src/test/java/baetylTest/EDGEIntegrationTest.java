@@ -1,8 +1,11 @@
 package baetylTest;
 
 
+import baetylTest.utils.TopicNamespace;
 import baetylTest.utils.client.ConnectionType;
 import baetylTest.utils.client.EdgeRuleHandlerKind;
+import baetylTest.utils.hub.EmbeddedHub;
+import baetylTest.utils.hub.HubConfig;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -37,6 +40,7 @@ public abstract class EDGEIntegrationTest {
     protected Map<String, Integer> remoteHubPortMap = new HashMap<>();
     protected TestContextManager testContextManager;
     protected Random random = new Random();
+    protected TopicNamespace namespace = TopicNamespace.NONE;
     public static final long SLEEP_TIME = 3000;
     public static final String EMPTY_MAP_STRING = "{}";
 
@@ -56,6 +60,13 @@ public abstract class EDGEIntegrationTest {
     @Value("${offline.edge.wss.port}")
     protected int offlineEdgeWssPort;
 
+    // Run against an in-process hub instead, function and remote cases still need a real baetyl
+    @Value("${offline.edge.embedded}")
+    protected boolean offlineEdgeEmbedded;
+
+    @Value("${offline.edge.embedded.conf}")
+    protected String offlineEdgeEmbeddedConf;
+
     @Value("${offline.edge.username}")
     protected String offlineEdgeUsername;
 
@@ -126,6 +137,9 @@ public abstract class EDGEIntegrationTest {
     @Value("${edge.rule.function.python.user}")
     protected String pythonFunctionUser;
 
+    @Value("${edge.rule.checker.multiplexed}")
+    protected boolean ruleCheckerMultiplexed;
+
     // For remote
     @Value("${edge.remote.mqtt.alltopic.username}")
     protected String remoteUsernameWithAllTopic;
@@ -149,12 +163,28 @@ public abstract class EDGEIntegrationTest {
     public void init() throws Exception {
         testContextManager = new TestContextManager(getClass());
         testContextManager.prepareTestInstance(this);
+        if (offlineEdgeEmbedded) {
+            useEmbeddedHub();
+        }
         offlineEdgePortMap = initConnectorToPortMap(offlineEdgeTcpPort, offlineEdgeSslPort,
                 offlineEdgeWsPort, offlineEdgeWssPort);
         remoteHubPortMap = initConnectorToPortMap(remoteHubTcpPort);
+        namespace = TopicNamespace.begin(getClass().isAnnotationPresent(SharedNamespace.class));
         log.info("-------- Test [{}] Starts -------", testName.getMethodName());
     }
 
+    /**
+     * Point offline edge url and ports at the hub of this JVM, started on first use
+     */
+    protected void useEmbeddedHub() throws Exception {
+        EmbeddedHub hub = EmbeddedHub.getShared(offlineEdgeEmbeddedConf);
+        offlineEdgeUrl = EmbeddedHub.LOCAL_HOST;
+        offlineEdgeTcpPort = hub.getPort(HubConfig.Endpoint.TCP);
+        offlineEdgeSslPort = hub.getPort(HubConfig.Endpoint.SSL);
+        offlineEdgeWsPort = hub.getPort(HubConfig.Endpoint.WS);
+        offlineEdgeWssPort = hub.getPort(HubConfig.Endpoint.WSS);
+    }
+
     public static Map<String, Integer> initConnectorToPortMap(int tcpPort) {
         Map<String, Integer> result = new HashMap<String, Integer>();
         result.put(ConnectionType.TCP.toString(), tcpPort);
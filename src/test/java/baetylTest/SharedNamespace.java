@@ -0,0 +1,17 @@
+package baetylTest;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a test class whose topics and client ids must not be prefixed by TopicNamespace,
+ * e.g. length limit or permission checks depending on exact names.
+ */
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface SharedNamespace {
+}
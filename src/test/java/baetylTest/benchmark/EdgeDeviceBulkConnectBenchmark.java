@@ -0,0 +1,69 @@
+package baetylTest.benchmark;
+
+import baetylTest.EDGEIntegrationTest;
+import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.client.BulkConnector;
+import baetylTest.utils.client.BulkResult;
+import baetylTest.utils.client.ConnectionType;
+import baetylTest.utils.client.MqttConnection;
+import baetylTest.utils.load.LoadProfile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Bulk connect and disconnect benchmark of localHub at several concurrency limits
+ */
+@Slf4j
+public class EdgeDeviceBulkConnectBenchmark extends EDGEIntegrationTest {
+
+    @Value("${benchmark.bulk.connections}")
+    protected int connections;
+
+    @Value("${benchmark.bulk.connection.type}")
+    protected String connectionType;
+
+    @Value("${benchmark.bulk.concurrency}")
+    protected int[] concurrencies;
+
+    /**
+     * TestGoal: Measure how long connecting and tearing down many clients takes per concurrency limit.
+     *
+     * Main steps:
+     *  Step1: Create N clients and connect them all with the concurrency limit.
+     *  Step2: Disconnect them all with the same limit.
+     *  Step3: Report both phases and check every client made it.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBulkConnect() throws Exception {
+        ConnectionType type = ConnectionType.valueOf(connectionType.trim().toUpperCase());
+        String url = PubSubCommon.generateHostUrl(offlineEdgeUrl, type, offlineEdgePortMap);
+        List<String> summaries = new ArrayList<String>();
+        for (int concurrency : concurrencies) {
+            List<MqttConnection> clients = new ArrayList<MqttConnection>();
+            for (int i = 0; i < connections; i++) {
+                clients.add(PubSubCommon.createMqttConnection(url, String.format("bulk_%s_%s", concurrency, i),
+                        LoadProfile.isTls(type), edgeCertPath, PubSubCommon.getDefaultConnectOptions(
+                        offlineEdgeUsername, offlineEdgePassword)));
+            }
+
+            BulkConnector connector = new BulkConnector(concurrency);
+            BulkResult connected = connector.connectAll(clients);
+            BulkResult disconnected = connector.disconnectAll(clients);
+            summaries.add(String.format("concurrency %d: %s; %s", concurrency, connected.summary(),
+                    disconnected.summary()));
+            Assert.assertEquals("Not all clients connected", connections, connected.getSucceeded());
+            Assert.assertEquals("Not all clients disconnected", connections, disconnected.getSucceeded());
+        }
+        for (String summary : summaries) {
+            log.info("Bulk connect of {} {} clients, {}", connections, type, summary);
+        }
+    }
+}
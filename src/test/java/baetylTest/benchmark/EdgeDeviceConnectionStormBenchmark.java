@@ -0,0 +1,107 @@
+package baetylTest.benchmark;
+
+import baetylTest.EDGEIntegrationTest;
+import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.client.BulkConnector;
+import baetylTest.utils.client.ConnectionType;
+import baetylTest.utils.client.MqttConnection;
+import baetylTest.utils.load.ConnectionStorm;
+import baetylTest.utils.load.LoadProfile;
+import baetylTest.utils.load.StormReport;
+import baetylTest.utils.load.TlsSessionMode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Connection storm benchmark of localHub, every device reconnecting at once after a power cut
+ */
+@Slf4j
+public class EdgeDeviceConnectionStormBenchmark extends EDGEIntegrationTest {
+
+    private static final String TWO_WAY_TLS = " two way tls";
+    private static final int TEARDOWN_CONCURRENCY = 64;
+
+    @Value("${benchmark.storm.size}")
+    protected int size;
+
+    @Value("${benchmark.storm.ramp}")
+    protected double ramp;
+
+    @Value("${benchmark.storm.connection.types}")
+    protected String connectionTypes;
+
+    @Value("${benchmark.storm.two.way.tls}")
+    protected boolean twoWayTls;
+
+    @Value("${benchmark.storm.timeout.seconds}")
+    protected long timeoutSeconds;
+
+    @Value("${benchmark.storm.tls.session.mode}")
+    protected TlsSessionMode tlsSessionMode;
+
+    /**
+     * TestGoal: Measure how fast each listener of localHub accepts a storm of connections.
+     *
+     * Main steps:
+     *  Step1: For each connection type, start N connects at the ramp rate (0 = all at once).
+     *  Step2: For SSL and WSS, run the storm again with two way tls using client.pem and client.key.
+     *  Step3: Report accept rate, handshake time, failure codes, time to all connected and whether tls sessions
+     *         were resumed, then disconnect.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConnectionStorm() throws Exception {
+        List<StormReport> reports = new ArrayList<StormReport>();
+        for (String item : connectionTypes.split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            ConnectionType type = ConnectionType.valueOf(item.trim().toUpperCase());
+            reports.add(storm(type, false));
+            if (twoWayTls && LoadProfile.isTls(type)) {
+                reports.add(storm(type, true));
+            }
+        }
+
+        for (StormReport report : reports) {
+            log.info("Storm of {} connections at ramp {}/s, {}", size, ramp, report.summary());
+        }
+        for (StormReport report : reports) {
+            Assert.assertTrue("No connection accepted on " + report.getListener(), report.getSucceeded() > 0);
+        }
+    }
+
+    private StormReport storm(ConnectionType type, boolean twoWay) throws Exception {
+        String url = PubSubCommon.generateHostUrl(offlineEdgeUrl, type, offlineEdgePortMap);
+        List<MqttConnection> clients = new ArrayList<MqttConnection>();
+        for (int i = 0; i < size; i++) {
+            String clientId = String.format("storm_%s_%s_%s", type.toString().toLowerCase(), twoWay ? "twoway" : "",
+                    i);
+            if (twoWay) {
+                MqttConnectOptions options = PubSubCommon.getDefaultConnectOptions(offlineEdgeTwoWayTlsUsername);
+                clients.add(PubSubCommon.createMqttConnection(url, clientId, true, edgeCertPath, options, true,
+                        edgeClientPemPath, edgeClientKeyPath));
+            } else {
+                MqttConnectOptions options = PubSubCommon.getDefaultConnectOptions(offlineEdgeUsername,
+                        offlineEdgePassword);
+                clients.add(PubSubCommon.createMqttConnection(url, clientId, LoadProfile.isTls(type), edgeCertPath,
+                        options));
+            }
+        }
+
+        try {
+            return new ConnectionStorm(twoWay ? type + TWO_WAY_TLS : type.toString(), ramp, timeoutSeconds,
+                    tlsSessionMode).run(clients);
+        } finally {
+            new BulkConnector(TEARDOWN_CONCURRENCY).disconnectAll(clients);
+        }
+    }
+}
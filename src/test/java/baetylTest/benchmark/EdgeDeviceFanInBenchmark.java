@@ -0,0 +1,252 @@
+package baetylTest.benchmark;
+
+import baetylTest.EDGEIntegrationTest;
+import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.client.BulkConnector;
+import baetylTest.utils.client.ConnectionType;
+import baetylTest.utils.client.MqttConnection;
+import baetylTest.utils.client.PipelinedPublisher;
+import baetylTest.utils.client.PublishBatch;
+import baetylTest.utils.client.SharedClientFactory;
+import baetylTest.utils.load.FanInCallback;
+import baetylTest.utils.load.FanInReport;
+import baetylTest.utils.load.LoadProfile;
+import baetylTest.utils.perf.PayloadSource;
+import baetylTest.utils.perf.SequenceTracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Many to one fan-in benchmark of localHub, like a gateway subscribed to # under thousands of sensors
+ */
+@Slf4j
+public class EdgeDeviceFanInBenchmark extends EDGEIntegrationTest {
+
+    private static final int CONNECT_CONCURRENCY = 64;
+
+    @Value("${benchmark.fanin.publishers}")
+    protected int publishers;
+
+    @Value("${benchmark.fanin.connection.type}")
+    protected String connectionType;
+
+    @Value("${benchmark.fanin.qos}")
+    protected int[] qosList;
+
+    @Value("${benchmark.fanin.messages}")
+    protected int messages;
+
+    @Value("${benchmark.fanin.rate}")
+    protected double rate;
+
+    @Value("${benchmark.fanin.window}")
+    protected int window;
+
+    @Value("${benchmark.fanin.publish.threads}")
+    protected int publishThreads;
+
+    @Value("${benchmark.fanin.payload.size}")
+    protected int payloadSize;
+
+    @Value("${benchmark.fanin.drain.seconds}")
+    protected long drainSeconds;
+
+    /**
+     * TestGoal: Measure fan-in throughput and report whether every publisher's stream arrives whole and in order.
+     *
+     * Main steps:
+     *  Step1: For each qos, subscribe one client to prefix/# and connect N publishers on a shared paho pool.
+     *  Step2: Let every publisher send its own sequence stream of msgs to prefix/index, at the aggregate rate.
+     *  Step3: Wait for the drain, then report throughput and per publisher gaps, duplicates and reordering.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFanIn() throws Exception {
+        ConnectionType type = ConnectionType.valueOf(connectionType.trim().toUpperCase());
+        List<FanInReport> reports = new ArrayList<FanInReport>();
+        for (int qos : qosList) {
+            reports.add(fanIn(type, qos));
+        }
+
+        for (FanInReport report : reports) {
+            log.info("Fan-in of {} publishers x {} msgs over {}, {}", publishers, messages, type, report.summary());
+        }
+        for (FanInReport report : reports) {
+            Assert.assertTrue("Nothing received at qos " + report.getQos(), report.getReceived() > 0);
+            if (report.getQos() > 0 && report.getReordered() > 0) {
+                log.warn("Fan-in at qos {} reordered {} msgs of {} publishers", report.getQos(),
+                        report.getReordered(), report.getPublishersReordered());
+            }
+        }
+    }
+
+    private FanInReport fanIn(ConnectionType type, int qos) throws Exception {
+        String url = PubSubCommon.generateHostUrl(offlineEdgeUrl, type, offlineEdgePortMap);
+        boolean tls = LoadProfile.isTls(type);
+        String prefix = String.format("benchmark/fanin/%s/%s", System.currentTimeMillis(), qos);
+        FanInReport report = new FanInReport(qos, publishers);
+
+        FanInCallback callback = new FanInCallback(publishers);
+        MqttConnection sub = PubSubCommon.createMqttConnection(url, String.format("Sub_fanin_%s",
+                System.currentTimeMillis()), tls, edgeCertPath, PubSubCommon.getDefaultConnectOptions(
+                offlineEdgeUsername, offlineEdgePassword));
+        sub.getClient().setCallback(callback);
+        SharedClientFactory factory = new SharedClientFactory(publishers);
+        List<MqttConnection> pubs = new ArrayList<MqttConnection>();
+        try {
+            sub.connect();
+            PubSubCommon.subscribe(sub, prefix + "/#", qos);
+            for (int i = 0; i < publishers; i++) {
+                MqttConnectOptions options = PubSubCommon.getDefaultConnectOptions(offlineEdgeUsername,
+                        offlineEdgePassword);
+                options.setMaxInflight(window);
+                pubs.add(factory.create(url, String.format("Pub_fanin_%s_%s", qos, i), tls, edgeCertPath,
+                        options));
+            }
+            new BulkConnector(CONNECT_CONCURRENCY).connectAll(pubs);
+
+            List<Integer> connected = new ArrayList<Integer>();
+            for (int i = 0; i < pubs.size(); i++) {
+                if (pubs.get(i).getClient().isConnected()) {
+                    connected.add(i);
+                }
+            }
+            report.setConnected(connected.size());
+            PayloadSource[] sources = new PayloadSource[publishers];
+            // Seqs paho took, msgs it refused are publish failures and no gaps of the hub
+            SequenceTracker[] handed = new SequenceTracker[publishers];
+            for (int i = 0; i < publishers; i++) {
+                sources[i] = new PayloadSource(payloadSize, window * 2);
+                handed[i] = new SequenceTracker();
+            }
+
+            long startNanos = System.nanoTime();
+            PublishBatch batch = publish(pubs, connected, sources, handed, prefix, qos);
+            batch.await(TimeUnit.SECONDS.toMillis(drainSeconds));
+            report.setAcked(batch.getAcked());
+            report.setPublishFailed(batch.getFailed());
+            for (SequenceTracker tracker : handed) {
+                report.setSent(report.getSent() + tracker.getUnique());
+            }
+            waitForDrain(callback, report.getSent());
+            report.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(Math.max(callback.getLastNanos(), startNanos)
+                    - startNanos));
+            summarize(report, callback, handed);
+        } finally {
+            new BulkConnector(CONNECT_CONCURRENCY).disconnectAll(pubs);
+            factory.shutdown();
+            sub.disconnect();
+        }
+        log.info("Fan-in point {}", report.summary());
+        return report;
+    }
+
+    /**
+     * Every connected publisher sends messages msgs, round robin over publish threads at the aggregate rate
+     */
+    private PublishBatch publish(final List<MqttConnection> pubs, List<Integer> connected,
+                                 final PayloadSource[] sources, final SequenceTracker[] handed, final String prefix,
+                                 final int qos) throws InterruptedException {
+        final PublishBatch batch = new PublishBatch(connected.size() * messages);
+        int workers = Math.max(1, Math.min(publishThreads, connected.size()));
+        final double workerRate = rate / workers;
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        for (int w = 0; w < workers; w++) {
+            // Each worker owns every workers-th publisher
+            final List<Integer> slice = new ArrayList<Integer>();
+            for (int i = w; i < connected.size(); i += workers) {
+                slice.add(connected.get(i));
+            }
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    publishLoop(pubs, slice, sources, handed, prefix, qos, workerRate, batch);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(drainSeconds + (long) (connected.size() * messages / Math.max(1, rate)),
+                TimeUnit.SECONDS);
+        return batch;
+    }
+
+    private void publishLoop(List<MqttConnection> pubs, List<Integer> slice, PayloadSource[] sources,
+                             SequenceTracker[] handed, String prefix, int qos, double workerRate,
+                             PublishBatch batch) {
+        List<PipelinedPublisher> publishers = new ArrayList<PipelinedPublisher>();
+        List<String> topics = new ArrayList<String>();
+        for (int index : slice) {
+            publishers.add(new PipelinedPublisher(pubs.get(index), window));
+            topics.add(String.format("%s/%s", prefix, index));
+        }
+        long interval = workerRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / workerRate) : 0;
+        long next = System.nanoTime();
+        try {
+            for (int round = 0; round < messages; round++) {
+                for (int i = 0; i < slice.size(); i++) {
+                    int index = slice.get(i);
+                    boolean sent;
+                    if (interval == 0) {
+                        sent = publishers.get(i).publish(topics.get(i), qos, sources[index].next(), false, batch);
+                    } else {
+                        long wait = next - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        long intended = next;
+                        next += interval;
+                        sent = publishers.get(i).publish(topics.get(i), qos, sources[index].next(intended), false,
+                                batch, intended);
+                    }
+                    if (sent) {
+                        // Each publisher is owned by one worker, so its source's last seq is this msg's
+                        handed[index].record((int) sources[index].getSequence());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("Fan-in publish loop stopped", e);
+        }
+    }
+
+    private void waitForDrain(FanInCallback callback, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(drainSeconds);
+        while (System.currentTimeMillis() < deadline && callback.getReceived() < expected) {
+            Thread.sleep(100);
+        }
+    }
+
+    private static void summarize(FanInReport report, FanInCallback callback, SequenceTracker[] handed) {
+        report.setReceived(callback.getReceived());
+        report.setUnknown(callback.getUnknown());
+        report.setConnectionLost(callback.getConLostCount());
+        for (int i = 0; i < handed.length; i++) {
+            SequenceTracker tracker = callback.getTracker(i);
+            long gaps = tracker.countMissing(handed[i]);
+            report.setGaps(report.getGaps() + gaps);
+            report.setDuplicates(report.getDuplicates() + tracker.getDuplicates());
+            report.setReordered(report.getReordered() + tracker.getReordered());
+            report.setWorstPublisherGaps(Math.max(report.getWorstPublisherGaps(), gaps));
+            if (gaps > 0) {
+                report.setPublishersWithGaps(report.getPublishersWithGaps() + 1);
+            }
+            if (tracker.getReordered() > 0) {
+                report.setPublishersReordered(report.getPublishersReordered() + 1);
+            }
+        }
+        report.setLatency(callback.getLatency().snapshot());
+    }
+}
@@ -0,0 +1,208 @@
+package baetylTest.benchmark;
+
+import baetylTest.EDGEIntegrationTest;
+import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.client.BulkConnector;
+import baetylTest.utils.client.ConnectionType;
+import baetylTest.utils.client.MqttConnection;
+import baetylTest.utils.client.PublishBatch;
+import baetylTest.utils.client.SharedClientFactory;
+import baetylTest.utils.load.FanOutCallback;
+import baetylTest.utils.load.FanOutReport;
+import baetylTest.utils.load.LoadProfile;
+import baetylTest.utils.perf.DeliverySkew;
+import baetylTest.utils.perf.LatencyRecorder;
+import baetylTest.utils.perf.PayloadSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * One to many fan-out benchmark of localHub topic routing, like an alarm broadcast to all devices
+ */
+@Slf4j
+public class EdgeDeviceFanOutBenchmark extends EDGEIntegrationTest {
+
+    public static final String EXACT = "EXACT";
+    public static final String PLUS = "PLUS";
+    public static final String HASH = "HASH";
+
+    private static final int CONNECT_CONCURRENCY = 64;
+
+    @Value("${benchmark.fanout.subscribers}")
+    protected int[] subscriberCounts;
+
+    @Value("${benchmark.fanout.filters}")
+    protected String filters;
+
+    @Value("${benchmark.fanout.connection.type}")
+    protected String connectionType;
+
+    @Value("${benchmark.fanout.qos}")
+    protected int qos;
+
+    @Value("${benchmark.fanout.messages}")
+    protected int messages;
+
+    @Value("${benchmark.fanout.window}")
+    protected int window;
+
+    @Value("${benchmark.fanout.payload.size}")
+    protected int payloadSize;
+
+    @Value("${benchmark.fanout.drain.seconds}")
+    protected long drainSeconds;
+
+    /**
+     * TestGoal: Find where fan-out of one publisher to many subscribers saturates the hub.
+     *
+     * Main steps:
+     *  Step1: For each filter kind (exact topic, + and #) and subscriber count, connect the subscribers on a
+     *         shared paho pool and subscribe them all to the filter.
+     *  Step2: Publish the msgs pipelined from one publisher to a topic matching the filter.
+     *  Step3: Wait until every subscriber got every msg or the drain timeout, then report per subscriber
+     *         delivery rate, skew between first and last subscriber of each msg and end to end latency.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFanOut() throws Exception {
+        ConnectionType type = ConnectionType.valueOf(connectionType.trim().toUpperCase());
+        List<FanOutReport> reports = new ArrayList<FanOutReport>();
+        for (String item : filters.split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            for (int subscribers : subscriberCounts) {
+                reports.add(fanOut(type, item.trim().toUpperCase(), subscribers));
+            }
+        }
+
+        for (FanOutReport report : reports) {
+            log.info("Fan-out of {} msgs over {}, {}", messages, type, report.summary());
+        }
+        for (FanOutReport report : reports) {
+            Assert.assertTrue(String.format("Nothing received on %s filter with %s subscribers", report.getFilter(),
+                    report.getSubscribers()), report.getReceived() > 0);
+        }
+    }
+
+    private FanOutReport fanOut(ConnectionType type, String filter, int subscribers) throws Exception {
+        String url = PubSubCommon.generateHostUrl(offlineEdgeUrl, type, offlineEdgePortMap);
+        boolean tls = LoadProfile.isTls(type);
+        String prefix = String.format("benchmark/fanout/%s/%s/%s", System.currentTimeMillis(),
+                filter.toLowerCase(), subscribers);
+        String topic = prefix + "/alarm/all";
+        FanOutReport report = new FanOutReport(filter, subscribers);
+
+        DeliverySkew skew = new DeliverySkew(messages);
+        LatencyRecorder latency = new LatencyRecorder();
+        SharedClientFactory factory = new SharedClientFactory(subscribers);
+        List<MqttConnection> subs = new ArrayList<MqttConnection>();
+        List<FanOutCallback> callbacks = new ArrayList<FanOutCallback>();
+        MqttConnectOptions connectOptions = PubSubCommon.getDefaultConnectOptions(offlineEdgeUsername,
+                offlineEdgePassword);
+        connectOptions.setMaxInflight(window);
+        MqttConnection pub = PubSubCommon.createMqttConnection(url, String.format("Pub_fanout_%s",
+                System.currentTimeMillis()), tls, edgeCertPath, connectOptions);
+        try {
+            for (int i = 0; i < subscribers; i++) {
+                String clientId = String.format("Sub_fanout_%s_%s_%s", filter.toLowerCase(), subscribers, i);
+                MqttConnection sub = factory.create(url, clientId, tls, edgeCertPath,
+                        PubSubCommon.getDefaultConnectOptions(offlineEdgeUsername, offlineEdgePassword));
+                FanOutCallback callback = new FanOutCallback(skew, latency);
+                sub.getClient().setCallback(callback);
+                subs.add(sub);
+                callbacks.add(callback);
+            }
+            new BulkConnector(CONNECT_CONCURRENCY).connectAll(subs);
+            String subFilter = filterOf(filter, prefix, topic);
+            for (MqttConnection sub : subs) {
+                if (sub.getClient().isConnected()) {
+                    PubSubCommon.subscribe(sub, subFilter, qos);
+                    report.setConnected(report.getConnected() + 1);
+                }
+            }
+
+            pub.connect();
+            long startNanos = System.nanoTime();
+            PublishBatch batch = PubSubCommon.publishPipelined(pub, topic, qos, new PayloadSource(payloadSize,
+                    window * 2), messages, false, window);
+            batch.await(TimeUnit.SECONDS.toMillis(drainSeconds));
+            report.setPublishMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            report.setPublished(batch.getAcked());
+            report.setPublishFailed(batch.getFailed());
+            waitForDrain(callbacks, report.getExpected());
+
+            summarize(report, callbacks, startNanos);
+            report.setSkew(skew.snapshot());
+            report.setLatency(latency.snapshot());
+        } finally {
+            pub.disconnect();
+            new BulkConnector(CONNECT_CONCURRENCY).disconnectAll(subs);
+            factory.shutdown();
+        }
+        log.info("Fan-out point {}", report.summary());
+        return report;
+    }
+
+    private static String filterOf(String filter, String prefix, String topic) {
+        if (EXACT.equals(filter)) {
+            return topic;
+        } else if (PLUS.equals(filter)) {
+            return prefix + "/+/all";
+        } else if (HASH.equals(filter)) {
+            return prefix + "/#";
+        }
+        throw new IllegalArgumentException("Unknown filter kind " + filter + ", expect EXACT, PLUS or HASH");
+    }
+
+    private void waitForDrain(List<FanOutCallback> callbacks, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(drainSeconds);
+        while (System.currentTimeMillis() < deadline && received(callbacks) < expected) {
+            Thread.sleep(100);
+        }
+    }
+
+    private static long received(List<FanOutCallback> callbacks) {
+        long received = 0;
+        for (FanOutCallback callback : callbacks) {
+            received += callback.getReceived();
+        }
+        return received;
+    }
+
+    private static void summarize(FanOutReport report, List<FanOutCallback> callbacks, long startNanos) {
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        double total = 0;
+        int counted = 0;
+        long lastNanos = startNanos;
+        for (FanOutCallback callback : callbacks) {
+            report.setReceived(report.getReceived() + callback.getReceived());
+            report.setConnectionLost(report.getConnectionLost() + callback.getConLostCount());
+            if (callback.getReceived() == 0) {
+                continue;
+            }
+            double rate = callback.getReceived() * TimeUnit.SECONDS.toNanos(1) / (double) Math.max(1,
+                    callback.getLastNanos() - startNanos);
+            lastNanos = Math.max(lastNanos, callback.getLastNanos());
+            min = Math.min(min, rate);
+            max = Math.max(max, rate);
+            total += rate;
+            counted++;
+        }
+        report.setMinSubscriberRate(counted == 0 ? 0 : min);
+        report.setMaxSubscriberRate(max);
+        report.setMeanSubscriberRate(counted == 0 ? 0 : total / counted);
+        report.setDeliveryRate(report.getReceived() * TimeUnit.SECONDS.toNanos(1) / (double) Math.max(1,
+                lastNanos - startNanos));
+    }
+}
@@ -0,0 +1,72 @@
+package baetylTest.benchmark;
+
+import baetylTest.EDGEIntegrationTest;
+import baetylTest.utils.client.ConnectionType;
+import baetylTest.utils.fleet.DeviceFleet;
+import baetylTest.utils.fleet.FleetProfile;
+import baetylTest.utils.fleet.FleetReport;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Device fleet benchmark of localHub: tens of thousands of telemetry devices from one load node
+ */
+@Slf4j
+public class EdgeDeviceFleetBenchmark extends EDGEIntegrationTest {
+
+    @Value("${benchmark.fleet.devices}")
+    protected int devices;
+
+    @Value("${benchmark.fleet.connection.type}")
+    protected String connectionType;
+
+    @Value("${benchmark.fleet.connect.rate}")
+    protected double connectRate;
+
+    @Value("${benchmark.fleet.telemetry.interval.millis}")
+    protected long telemetryIntervalMillis;
+
+    @Value("${benchmark.fleet.duration.seconds}")
+    protected long durationSeconds;
+
+    @Value("${benchmark.fleet.qos}")
+    protected int qos;
+
+    @Value("${benchmark.fleet.local.addresses}")
+    protected String localAddresses;
+
+    /**
+     * TestGoal: Measure how many telemetry devices one hub serves and what each costs the load node.
+     *
+     * Main steps:
+     *  Step1: Connect the devices at the connect rate, each subscribing to its command topic.
+     *  Step2: Let every device publish telemetry once per interval for the configured duration.
+     *  Step3: Send each device one command and check it arrives, then report.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDeviceFleet() throws Exception {
+        FleetProfile profile = new FleetProfile();
+        profile.setHostname(offlineEdgeUrl);
+        profile.setPortMap(offlineEdgePortMap);
+        profile.setCertPath(edgeCertPath);
+        profile.setUsername(offlineEdgeUsername);
+        profile.setPassword(offlineEdgePassword);
+        profile.setDevices(devices);
+        profile.setConnectionType(ConnectionType.valueOf(connectionType.trim().toUpperCase()));
+        profile.setConnectRate(connectRate);
+        profile.setTelemetryIntervalMillis(telemetryIntervalMillis);
+        profile.setDurationSeconds(durationSeconds);
+        profile.setQos(qos);
+        profile.setLocalAddresses(FleetProfile.parseAddresses(localAddresses));
+        log.info("Fleet of {} devices, {} msg/s telemetry", devices, profile.getTelemetryRate());
+
+        FleetReport report = new DeviceFleet(profile).run();
+        Assert.assertTrue("No device connected", report.getConnected() > 0);
+        Assert.assertTrue("No telemetry sent", report.getTelemetrySent() > 0);
+    }
+}
@@ -0,0 +1,74 @@
+package baetylTest.benchmark;
+
+import baetylTest.EDGEIntegrationTest;
+import baetylTest.utils.load.LoadGenerator;
+import baetylTest.utils.load.LoadProfile;
+import baetylTest.utils.load.LoadReport;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Load benchmark of localHub with many concurrent devices, used to size edge boxes
+ */
+@Slf4j
+public class EdgeDeviceLoadBenchmark extends EDGEIntegrationTest {
+
+    @Value("${benchmark.load.connections}")
+    protected int connections;
+
+    @Value("${benchmark.load.connection.types}")
+    protected String connectionTypes;
+
+    @Value("${benchmark.load.subscribers}")
+    protected int subscribers;
+
+    @Value("${benchmark.load.rate}")
+    protected double rate;
+
+    @Value("${benchmark.load.duration.seconds}")
+    protected long durationSeconds;
+
+    @Value("${benchmark.load.qos}")
+    protected int qos;
+
+    @Value("${benchmark.load.payload.size}")
+    protected int payloadSize;
+
+    @Value("${benchmark.load.shared.clients}")
+    protected boolean sharedClients;
+
+    /**
+     * TestGoal: Measure throughput, connect success and loss of localHub under load.
+     *
+     * Main steps:
+     *  Step1: Connect subscribers on the load topic and N publishers over the configured connection type mix.
+     *  Step2: Publish at the configured aggregate rate for the configured duration.
+     *  Step3: Wait for subscribers to drain and report.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testLoad() throws Exception {
+        LoadProfile profile = new LoadProfile();
+        profile.setHostname(offlineEdgeUrl);
+        profile.setPortMap(offlineEdgePortMap);
+        profile.setCertPath(edgeCertPath);
+        profile.setUsername(offlineEdgeUsername);
+        profile.setPassword(offlineEdgePassword);
+        profile.setConnections(connections);
+        profile.setTypeMix(LoadProfile.parseTypeMix(connectionTypes));
+        profile.setSubscribers(subscribers);
+        profile.setRate(rate);
+        profile.setDurationSeconds(durationSeconds);
+        profile.setQos(qos);
+        profile.setPayloadSize(payloadSize);
+        profile.setSharedClients(sharedClients);
+
+        LoadReport report = new LoadGenerator(profile).run();
+        Assert.assertTrue("No publisher connected", report.getConnectSucceeded() > 0);
+        Assert.assertTrue("Nothing published", report.getPublished() > 0);
+    }
+}
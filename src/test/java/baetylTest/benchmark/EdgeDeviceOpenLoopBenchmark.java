@@ -0,0 +1,95 @@
+package baetylTest.benchmark;
+
+import baetylTest.EDGEIntegrationTest;
+import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.client.ConnectionType;
+import baetylTest.utils.client.MqttConnection;
+import baetylTest.utils.client.PubSubCallback;
+import baetylTest.utils.client.PublishBatch;
+import baetylTest.utils.perf.ArrivalSchedule;
+import baetylTest.utils.perf.LatencyRecorder;
+import baetylTest.utils.perf.PayloadEnvelope;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Qos1 latency at fixed offered rates, measured from intended send times so egress back pressure of the hub
+ * (egress qos1 buffer size) shows up in the tail instead of slowing the publisher down
+ */
+@Slf4j
+public class EdgeDeviceOpenLoopBenchmark extends EDGEIntegrationTest {
+
+    @Value("${benchmark.openloop.rates}")
+    protected int[] rates;
+
+    @Value("${benchmark.openloop.arrival}")
+    protected String arrival;
+
+    @Value("${benchmark.openloop.messages}")
+    protected int messages;
+
+    @Value("${benchmark.openloop.window}")
+    protected int window;
+
+    /**
+     * TestGoal: Measure qos1 ack and end to end latency percentiles for each offered rate.
+     *
+     * Main steps:
+     *  Step1: Connect a qos1 sub and a pub whose max inflight covers the window.
+     *  Step2: For each rate, publish msgs on the arrival schedule and wait for all acks and deliveries.
+     *  Step3: Report latencies from intended send time next to the service time of the hub.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testOpenLoopPublish() throws Exception {
+        String topicPrefix = "benchmark/openloop/" + System.currentTimeMillis();
+        int qos = 1;
+        MqttConnectOptions connectOptions = PubSubCommon.getDefaultConnectOptions(offlineEdgeUsername,
+                offlineEdgePassword);
+        connectOptions.setMaxInflight(window);
+        String url = PubSubCommon.generateHostUrl(offlineEdgeUrl, ConnectionType.TCP, offlineEdgePortMap);
+        MqttConnection pub = PubSubCommon.createMqttConnection(url, String.format("Pub_%s",
+                System.currentTimeMillis()), false, edgeCertPath, connectOptions);
+        MqttConnection sub = PubSubCommon.createMqttConnection(url, String.format("Sub_%s",
+                System.currentTimeMillis()), false, edgeCertPath, connectOptions);
+        sub.setCallBack(new PubSubCallback(false));
+        PayloadEnvelope.setEnabled(true);
+        try {
+            sub.connect();
+            PubSubCommon.subscribe(sub, topicPrefix + "/#", qos);
+            pub.connect();
+
+            for (int rate : rates) {
+                String topic = String.format("%s/%s", topicPrefix, rate);
+                List<String> pubMessages = new ArrayList<String>();
+                for (int i = 0; i < messages; i++) {
+                    pubMessages.add(String.format("%s_%s", topic, i));
+                }
+                ArrivalSchedule schedule = ArrivalSchedule.parse(arrival, rate);
+                PublishBatch batch = PubSubCommon.publishOpenLoop(pub, topic, qos, pubMessages, false, window,
+                        schedule);
+                Assert.assertTrue("Acks timed out", batch.await(MqttConnection.ACTION_TIME_OUT));
+                int received = sub.getCallback().waitAndGetReveiveListMap(topic, messages).size();
+                LatencyRecorder endToEnd = sub.getCallback().getTopicLatency(topic);
+
+                log.info("Open-loop {}: acked {}/{}, received {}", schedule, batch.getAcked(), messages, received);
+                log.info("  ack latency  {}", batch.getAckLatency().summary());
+                log.info("  service time {}", batch.getServiceTime().summary());
+                log.info("  end to end   {}", endToEnd == null ? "none" : endToEnd.summary());
+                Assert.assertEquals("Some publishes failed", messages, batch.getAcked());
+            }
+        } finally {
+            PayloadEnvelope.setEnabled(false);
+            pub.disconnect();
+            sub.disconnect();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package baetylTest.benchmark;
+
+import baetylTest.EDGEIntegrationTest;
+import baetylTest.utils.BenchmarkCommon;
+import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.client.ConnectionType;
+import baetylTest.utils.client.MqttConnection;
+import baetylTest.utils.client.PubSubCallback;
+import baetylTest.utils.client.PublishBatch;
+import baetylTest.utils.load.LoadProfile;
+import baetylTest.utils.perf.LatencyRecorder;
+import baetylTest.utils.perf.PayloadEnvelope;
+import baetylTest.utils.perf.PayloadSource;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Payload size sweep of localHub, to pick the batch size of device readings that maximises hub throughput
+ */
+@Slf4j
+public class EdgeDevicePayloadSweepBenchmark extends EDGEIntegrationTest {
+
+    private static final String CSV_HEADER = "transport,qos,size,messages,received,msg_per_s,mb_per_s,"
+            + "latency_kind,p50_ms,p99_ms,p999_ms,max_ms";
+    // Latency columns of a row are publish to receive, or publish to ack when the payload can't hold an envelope
+    private static final String END_TO_END = "end_to_end";
+    private static final String PUBLISH_ACK = "publish_ack";
+    private static final double BYTES_PER_MB = 1000.0 * 1000.0;
+    private static final double MICROS_PER_MILLI = 1000.0;
+    private static final long DRAIN_SECONDS = 30;
+
+    @Value("${benchmark.payload.connection.types}")
+    protected String connectionTypes;
+
+    @Value("${benchmark.payload.qos}")
+    protected int[] qosList;
+
+    @Value("${benchmark.payload.min.size}")
+    protected int minSize;
+
+    @Value("${benchmark.payload.max.size}")
+    protected int maxSize;
+
+    @Value("${benchmark.payload.step.factor}")
+    protected int stepFactor;
+
+    @Value("${benchmark.payload.messages}")
+    protected int messages;
+
+    @Value("${benchmark.payload.window}")
+    protected int window;
+
+    @Value("${benchmark.payload.csv}")
+    protected String csvPath;
+
+    /**
+     * TestGoal: Chart msg/s, MB/s and latency per payload size, qos and transport.
+     *
+     * Main steps:
+     *  Step1: For each transport and qos, connect a pub and a sub on a fresh topic.
+     *  Step2: For each size from min to max (capped at the hub msg limit) in geometric steps, publish the msgs
+     *         pipelined and wait until the sub received them.
+     *  Step3: Log one row per point, and write them to the csv file if configured. Points below
+     *         {@link PayloadEnvelope#HEADER_LENGTH} bytes have publish ack latency, marked in the latency_kind column.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPayloadSweep() throws Exception {
+        List<String> rows = new ArrayList<String>();
+        for (String item : connectionTypes.split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            ConnectionType type = ConnectionType.valueOf(item.trim().toUpperCase());
+            for (int qos : qosList) {
+                rows.addAll(sweep(type, qos));
+            }
+        }
+
+        log.info("Payload sweep:\n{}\n{}", CSV_HEADER, BenchmarkCommon.joinRows(rows));
+        if (!csvPath.trim().isEmpty()) {
+            PrintWriter writer = new PrintWriter(new FileWriter(csvPath.trim()));
+            try {
+                writer.println(CSV_HEADER);
+                for (String row : rows) {
+                    writer.println(row);
+                }
+            } finally {
+                writer.close();
+            }
+            log.info("Payload sweep written to {}", csvPath.trim());
+        }
+        Assert.assertFalse("No point measured", rows.isEmpty());
+    }
+
+    private List<String> sweep(ConnectionType type, int qos) throws Exception {
+        String url = PubSubCommon.generateHostUrl(offlineEdgeUrl, type, offlineEdgePortMap);
+        boolean tls = LoadProfile.isTls(type);
+        String topicPrefix = String.format("benchmark/payload/%s/%s/%s", System.currentTimeMillis(),
+                type.toString().toLowerCase(), qos);
+        MqttConnectOptions connectOptions = PubSubCommon.getDefaultConnectOptions(offlineEdgeUsername,
+                offlineEdgePassword);
+        connectOptions.setMaxInflight(window);
+        MqttConnection pub = PubSubCommon.createMqttConnection(url, String.format("Pub_%s",
+                System.currentTimeMillis()), tls, edgeCertPath, connectOptions);
+        MqttConnection sub = PubSubCommon.createMqttConnection(url, String.format("Sub_%s",
+                System.currentTimeMillis()), tls, edgeCertPath, connectOptions);
+        sub.setCallBack(new PubSubCallback(false));
+
+        List<String> rows = new ArrayList<String>();
+        try {
+            sub.connect();
+            PubSubCommon.subscribe(sub, topicPrefix + "/#", qos);
+            pub.connect();
+            for (int size : sizes()) {
+                rows.add(measure(pub, sub, type, qos, String.format("%s/%s", topicPrefix, size), size));
+            }
+        } finally {
+            pub.disconnect();
+            sub.disconnect();
+        }
+        return rows;
+    }
+
+    /**
+     * @return  one csv row of the point
+     */
+    private String measure(MqttConnection pub, MqttConnection sub, ConnectionType type, int qos, String topic,
+                           int size) throws Exception {
+        // The envelope is part of the payload, below its length only the publish side is measured. Twice the
+        // window of buffers, so none is stamped again while its msg may still be in flight.
+        PayloadSource source = new PayloadSource(size, window * 2);
+
+        long startTime = System.currentTimeMillis();
+        PublishBatch batch = PubSubCommon.publishPipelined(pub, topic, qos, source, messages, false, window);
+        batch.await(TimeUnit.SECONDS.toMillis(DRAIN_SECONDS));
+        // Qos 0 msgs may be dropped, so wait for all of them but not forever
+        int received = sub.getCallback().waitAndGetReveiveListMap(topic, messages, qos == 0 ? 5 : DRAIN_SECONDS)
+                .size();
+        long elapsed = Math.max(1, (received == 0 ? System.currentTimeMillis()
+                : sub.getCallback().getLastReceiveMessageTime()) - startTime);
+
+        LatencyRecorder endToEnd = sub.getCallback().getTopicLatency(topic);
+        Histogram latency = endToEnd == null ? batch.getAckLatency().snapshot() : endToEnd.snapshot();
+        double msgRate = received * 1000.0 / elapsed;
+        String row = String.format("%s,%d,%d,%d,%d,%.1f,%.3f,%s,%.3f,%.3f,%.3f,%.3f", type, qos, size, messages,
+                received, msgRate, msgRate * size / BYTES_PER_MB, endToEnd == null ? PUBLISH_ACK : END_TO_END,
+                latency.getValueAtPercentile(50) / MICROS_PER_MILLI,
+                latency.getValueAtPercentile(99) / MICROS_PER_MILLI,
+                latency.getValueAtPercentile(99.9) / MICROS_PER_MILLI, latency.getMaxValue() / MICROS_PER_MILLI);
+        log.info("Payload sweep point {}, failed {}", row, batch.getFailed());
+        if (batch.getFailed() > 0 && !pub.getClient().isConnected()) {
+            log.warn("{} bytes rejected by the hub, reconnecting the pub", size);
+            pub.connect();
+        }
+        return row;
+    }
+
+    /**
+     * Sizes from min to max in geometric steps, the last one capped at the hub msg limit
+     */
+    private List<Integer> sizes() {
+        List<Integer> result = new ArrayList<Integer>();
+        int limit = Math.min(maxSize, payloadLengthLimit);
+        for (long size = minSize; size <= limit; size *= Math.max(2, stepFactor)) {
+            result.add((int) size);
+        }
+        if (result.isEmpty() || result.get(result.size() - 1) < limit) {
+            result.add(limit);
+        }
+        return result;
+    }
+}
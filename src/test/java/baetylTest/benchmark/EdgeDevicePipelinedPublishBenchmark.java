@@ -0,0 +1,85 @@
+package baetylTest.benchmark;
+
+import baetylTest.EDGEIntegrationTest;
+import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.client.ConnectionType;
+import baetylTest.utils.client.MqttConnection;
+import baetylTest.utils.client.PubSubCallback;
+import baetylTest.utils.client.PublishBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Qos1 publish throughput of one client by in-flight window, against the hub's ingress qos1 batching
+ */
+@Slf4j
+public class EdgeDevicePipelinedPublishBenchmark extends EDGEIntegrationTest {
+
+    @Value("${benchmark.pipeline.windows}")
+    protected int[] windows;
+
+    @Value("${benchmark.pipeline.messages}")
+    protected int messages;
+
+    /**
+     * TestGoal: Measure qos1 msg/s and ack latency for each in-flight window.
+     *
+     * Main steps:
+     *  Step1: Connect a sub and a pub whose max inflight covers the largest window.
+     *  Step2: For each window, publish msgs pipelined and wait for all acks and deliveries.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPipelinedPublish() throws Exception {
+        String topic = "benchmark/pipeline/" + System.currentTimeMillis();
+        int qos = 1;
+        int maxWindow = 1;
+        for (int window : windows) {
+            maxWindow = Math.max(maxWindow, window);
+        }
+        MqttConnectOptions connectOptions = PubSubCommon.getDefaultConnectOptions(offlineEdgeUsername,
+                offlineEdgePassword);
+        connectOptions.setMaxInflight(maxWindow);
+        String url = PubSubCommon.generateHostUrl(offlineEdgeUrl, ConnectionType.TCP, offlineEdgePortMap);
+        MqttConnection pub = PubSubCommon.createMqttConnection(url, String.format("Pub_%s",
+                System.currentTimeMillis()), false, edgeCertPath, connectOptions);
+        MqttConnection sub = PubSubCommon.createMqttConnection(url, String.format("Sub_%s",
+                System.currentTimeMillis()), false, edgeCertPath, connectOptions);
+        sub.setCallBack(new PubSubCallback(false));
+        try {
+            sub.connect();
+            PubSubCommon.subscribe(sub, topic, qos);
+            pub.connect();
+
+            List<String> pubMessages = new ArrayList<String>();
+            for (int i = 0; i < messages; i++) {
+                pubMessages.add(String.format("%s_%s", topic, i));
+            }
+            for (int window : windows) {
+                long startTime = System.nanoTime();
+                PublishBatch batch = PubSubCommon.publishPipelined(pub, topic, qos, pubMessages, false, window);
+                Assert.assertTrue("Acks timed out", batch.await(MqttConnection.ACTION_TIME_OUT));
+                long ackedTime = System.nanoTime();
+                int received = sub.getCallback().waitAndGetReveiveList(messages).size();
+                long receivedTime = System.nanoTime();
+
+                log.info("Window {}: acked {}/{} at {} msg/s, received {} at {} msg/s, ack latency {}", window,
+                        batch.getAcked(), messages, String.format("%.1f", messages * 1e9 / (ackedTime - startTime)),
+                        received, String.format("%.1f", received * 1e9 / (receivedTime - startTime)),
+                        batch.getAckLatency().summary());
+                Assert.assertEquals("Some publishes failed", messages, batch.getAcked());
+            }
+        } finally {
+            pub.disconnect();
+            sub.disconnect();
+        }
+    }
+}
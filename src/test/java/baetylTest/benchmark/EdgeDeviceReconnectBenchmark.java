@@ -0,0 +1,260 @@
+package baetylTest.benchmark;
+
+import baetylTest.EDGEIntegrationTest;
+import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.client.BulkConnector;
+import baetylTest.utils.client.ConnectionType;
+import baetylTest.utils.client.MqttConnection;
+import baetylTest.utils.client.ReconnectPolicy;
+import baetylTest.utils.client.Reconnector;
+import baetylTest.utils.hub.EmbeddedHub;
+import baetylTest.utils.perf.LatencyRecorder;
+import baetylTest.utils.perf.SequenceTracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Hub restart under load: do reconnecting clients converge or pile up, and what happens to qos 1 msgs
+ */
+@Slf4j
+public class EdgeDeviceReconnectBenchmark extends EDGEIntegrationTest {
+
+    private static final int QOS = 1;
+    private static final int CONNECT_CONCURRENCY = 64;
+    private static final int MAX_INFLIGHT = 1000;
+    private static final long DRAIN_SECONDS = 60;
+    private static final String CHARSET = "utf-8";
+
+    @Value("${benchmark.reconnect.subscribers}")
+    protected int subscribers;
+
+    @Value("${benchmark.reconnect.rate}")
+    protected double rate;
+
+    @Value("${benchmark.reconnect.duration.seconds}")
+    protected long durationSeconds;
+
+    @Value("${benchmark.reconnect.outage.seconds}")
+    protected long outageSeconds;
+
+    @Value("${benchmark.reconnect.initial.delay.millis}")
+    protected long initialDelayMillis;
+
+    @Value("${benchmark.reconnect.max.delay.millis}")
+    protected long maxDelayMillis;
+
+    @Value("${benchmark.reconnect.jitter}")
+    protected double jitter;
+
+    /**
+     * TestGoal: Check clients converge after a hub restart under load and count redelivered and lost qos 1 msgs.
+     *
+     * Main steps:
+     *  Step1: Connect persistent qos 1 subscribers and a publisher, all reconnecting with backoff and jitter.
+     *  Step2: Publish sequence numbers at the rate; after a third of the duration the hub goes away for the
+     *         outage. The embedded hub is restarted here, a real one has to be restarted by hand meanwhile.
+     *  Step3: Wait for every client to recover and drain, then report recovery time, attempts, redelivered
+     *         and lost msgs (acked to the publisher but never received).
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReconnectAfterRestart() throws Exception {
+        ReconnectPolicy policy = new ReconnectPolicy();
+        policy.setInitialDelayMillis(initialDelayMillis);
+        policy.setMaxDelayMillis(maxDelayMillis);
+        policy.setJitter(jitter);
+        String url = PubSubCommon.generateHostUrl(offlineEdgeUrl, ConnectionType.TCP, offlineEdgePortMap);
+        String topic = "reconnect/" + System.currentTimeMillis();
+
+        List<MqttConnection> subs = new ArrayList<MqttConnection>();
+        List<Reconnector> reconnectors = new ArrayList<Reconnector>();
+        List<SequenceTracker> trackers = new ArrayList<SequenceTracker>();
+        for (int i = 0; i < subscribers; i++) {
+            MqttConnectOptions options = PubSubCommon.getDefaultConnectOptions(offlineEdgeUsername,
+                    offlineEdgePassword);
+            options.setCleanSession(false);
+            MqttConnection sub = PubSubCommon.createMqttConnection(url, String.format("reconnect_sub_%s_%s",
+                    topic.hashCode() & Integer.MAX_VALUE, i), false, edgeCertPath, options);
+            SequenceTracker tracker = new SequenceTracker();
+            reconnectors.add(Reconnector.install(sub, policy, new TrackingCallback(tracker)));
+            subs.add(sub);
+            trackers.add(tracker);
+        }
+        MqttConnectOptions pubOptions = PubSubCommon.getDefaultConnectOptions(offlineEdgeUsername,
+                offlineEdgePassword);
+        pubOptions.setMaxInflight(MAX_INFLIGHT);
+        MqttConnection pub = PubSubCommon.createMqttConnection(url, "reconnect_pub_" + System.currentTimeMillis(),
+                false, edgeCertPath, pubOptions);
+        reconnectors.add(Reconnector.install(pub, policy, null));
+
+        List<MqttConnection> all = new ArrayList<MqttConnection>(subs);
+        all.add(pub);
+        try {
+            Assert.assertEquals("Not all clients connected", all.size(),
+                    new BulkConnector(CONNECT_CONCURRENCY).connectAll(all).getSucceeded());
+            for (MqttConnection sub : subs) {
+                PubSubCommon.subscribe(sub, topic, QOS);
+            }
+
+            SequenceTracker acked = publish(pub, topic);
+            waitForConvergence(reconnectors, trackers, acked);
+            report(reconnectors, trackers, acked);
+        } finally {
+            for (Reconnector reconnector : reconnectors) {
+                reconnector.close();
+            }
+            new BulkConnector(CONNECT_CONCURRENCY).disconnectAll(all);
+        }
+    }
+
+    /**
+     * Publish at the rate for the duration with a hub outage in between
+     *
+     * @return  seqs acked to the publisher
+     */
+    private SequenceTracker publish(MqttConnection pub, String topic) throws Exception {
+        final SequenceTracker acked = new SequenceTracker();
+        EmbeddedHub hub = offlineEdgeEmbedded ? EmbeddedHub.getShared(offlineEdgeEmbeddedConf) : null;
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long startTime = System.nanoTime();
+        long outageStart = startTime + TimeUnit.SECONDS.toNanos(durationSeconds) / 3;
+        long outageEnd = outageStart + TimeUnit.SECONDS.toNanos(outageSeconds);
+        long endTime = startTime + TimeUnit.SECONDS.toNanos(durationSeconds);
+        boolean down = false;
+        boolean restarted = false;
+        long failed = 0;
+        String namespacedTopic = pub.getNamespace().topic(topic);
+        if (hub == null) {
+            log.info("Restart the hub between {} s and {} s from now", durationSeconds / 3,
+                    durationSeconds / 3 + outageSeconds);
+        }
+
+        long next = startTime;
+        for (int seq = 0; System.nanoTime() < endTime; seq++) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            next += interval;
+
+            long now = System.nanoTime();
+            if (hub != null && !down && now >= outageStart) {
+                log.info("Stopping the embedded hub for {} s", outageSeconds);
+                hub.stop();
+                down = true;
+            }
+            if (hub != null && down && !restarted && now >= outageEnd) {
+                hub.start();
+                restarted = true;
+                log.info("Embedded hub restarted");
+            }
+
+            final int current = seq;
+            try {
+                pub.getClient().publish(namespacedTopic, String.valueOf(seq).getBytes(CHARSET), QOS, false, null,
+                        new IMqttActionListener() {
+                            @Override
+                            public void onSuccess(IMqttToken asyncActionToken) {
+                                acked.record(current);
+                            }
+
+                            @Override
+                            public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                            }
+                        });
+            } catch (MqttException e) {
+                // Not connected or max inflight, the msg is simply not sent
+                failed++;
+            }
+        }
+        log.info("Published until {} s, {} not sent", durationSeconds, failed);
+        return acked;
+    }
+
+    private void waitForConvergence(List<Reconnector> reconnectors, List<SequenceTracker> trackers,
+                                    SequenceTracker acked) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(DRAIN_SECONDS);
+        while (System.currentTimeMillis() < deadline) {
+            boolean done = true;
+            for (Reconnector reconnector : reconnectors) {
+                done &= reconnector.getRecovered() + reconnector.getGivenUp() >= reconnector.getLost();
+            }
+            for (SequenceTracker tracker : trackers) {
+                done &= tracker.countMissing(acked) == 0;
+            }
+            if (done) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        log.warn("Clients didn't converge in {} s", DRAIN_SECONDS);
+    }
+
+    private void report(List<Reconnector> reconnectors, List<SequenceTracker> trackers, SequenceTracker acked) {
+        Histogram recovery = new Histogram(LatencyRecorder.HIGHEST_TRACKABLE_MICROS,
+                LatencyRecorder.SIGNIFICANT_DIGITS);
+        int lost = 0;
+        int attempts = 0;
+        int recovered = 0;
+        int givenUp = 0;
+        for (Reconnector reconnector : reconnectors) {
+            recovery.add(reconnector.getRecovery().snapshot());
+            lost += reconnector.getLost();
+            attempts += reconnector.getAttempts();
+            recovered += reconnector.getRecovered();
+            givenUp += reconnector.getGivenUp();
+        }
+        long redelivered = 0;
+        long missing = 0;
+        for (SequenceTracker tracker : trackers) {
+            redelivered += tracker.getDuplicates();
+            missing += tracker.countMissing(acked);
+        }
+        log.info("Reconnect report: {} clients, connection lost {}, recovered {}, gave up {}, {} attempts, "
+                + "recovery {}; {} qos 1 msgs acked, {} redelivered, {} lost over {} subscribers", reconnectors.size(),
+                lost, recovered, givenUp, attempts, LatencyRecorder.summary(recovery), acked.getUnique(),
+                redelivered, missing, trackers.size());
+        Assert.assertEquals("Not every lost connection recovered", lost, recovered);
+    }
+
+    /**
+     * Records the sequence number carried by each msg
+     */
+    private static class TrackingCallback implements MqttCallback {
+        private final SequenceTracker tracker;
+
+        TrackingCallback(SequenceTracker tracker) {
+            this.tracker = tracker;
+        }
+
+        @Override
+        public void connectionLost(Throwable cause) {
+        }
+
+        @Override
+        public void messageArrived(String topic, MqttMessage message) throws Exception {
+            tracker.record(Integer.parseInt(new String(message.getPayload(), CHARSET)));
+        }
+
+        @Override
+        public void deliveryComplete(IMqttDeliveryToken token) {
+        }
+    }
+}
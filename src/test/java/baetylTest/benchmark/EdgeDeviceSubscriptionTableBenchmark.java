@@ -0,0 +1,269 @@
+package baetylTest.benchmark;
+
+import baetylTest.EDGEIntegrationTest;
+import baetylTest.utils.BenchmarkCommon;
+import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.client.BulkConnector;
+import baetylTest.utils.client.ConnectionType;
+import baetylTest.utils.client.MqttConnection;
+import baetylTest.utils.client.SharedClientFactory;
+import baetylTest.utils.load.FanOutCallback;
+import baetylTest.utils.load.LoadCallback;
+import baetylTest.utils.load.LoadProfile;
+import baetylTest.utils.perf.DeliverySkew;
+import baetylTest.utils.perf.LatencyRecorder;
+import baetylTest.utils.perf.PayloadSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Subscription table benchmark of localHub: SUBACK and routing latency while the table grows, and churn cost
+ */
+@Slf4j
+public class EdgeDeviceSubscriptionTableBenchmark extends EDGEIntegrationTest {
+
+    private static final String ROW_HEADER = "entries,suback_p50_ms,suback_p99_ms,route_p50_ms,route_p99_ms,"
+            + "route_max_ms";
+    private static final int CONNECT_CONCURRENCY = 64;
+    private static final int PROBE_QOS = 1;
+    private static final int PROBE_PAYLOAD_SIZE = 64;
+    private static final int SUBACK_FAILURE = 0x80;
+    private static final long PROBE_TIMEOUT_SECONDS = 10;
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    @Value("${benchmark.subtable.clients}")
+    protected int clients;
+
+    @Value("${benchmark.subtable.filters.per.client}")
+    protected int filtersPerClient;
+
+    @Value("${benchmark.subtable.batch}")
+    protected int batch;
+
+    @Value("${benchmark.subtable.checkpoint}")
+    protected int checkpoint;
+
+    @Value("${benchmark.subtable.connection.type}")
+    protected String connectionType;
+
+    @Value("${benchmark.subtable.qos}")
+    protected int qos;
+
+    @Value("${benchmark.subtable.probe.messages}")
+    protected int probeMessages;
+
+    @Value("${benchmark.subtable.churn.rounds}")
+    protected int churnRounds;
+
+    private String prefix;
+    private MqttConnection probePub;
+    private MqttConnection probeSub;
+
+    /**
+     * TestGoal: Measure how the hub copes with a large subscription table, from one client with many filters
+     * to many clients with overlapping ones.
+     *
+     * Main steps:
+     *  Step1: Connect the clients, then let them subscribe batches of filters with subscribe(String[], int[])
+     *         in turn, recording SUBACK latency, until every client holds its filters.
+     *  Step2: At every checkpoint of table entries, publish probe msgs one by one to a topic only the probe
+     *         sub matches, the probe latency is the routing cost of the table.
+     *  Step3: Unsubscribe and resubscribe batches of filters for the churn rounds, then probe again.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSubscriptionTable() throws Exception {
+        ConnectionType type = ConnectionType.valueOf(connectionType.trim().toUpperCase());
+        String url = PubSubCommon.generateHostUrl(offlineEdgeUrl, type, offlineEdgePortMap);
+        boolean tls = LoadProfile.isTls(type);
+        prefix = String.format("benchmark/subtable/%s", System.currentTimeMillis());
+
+        MqttConnectOptions connectOptions = PubSubCommon.getDefaultConnectOptions(offlineEdgeUsername,
+                offlineEdgePassword);
+        probePub = PubSubCommon.createMqttConnection(url, String.format("Pub_subtable_%s",
+                System.currentTimeMillis()), tls, edgeCertPath, connectOptions);
+        probeSub = PubSubCommon.createMqttConnection(url, String.format("Sub_subtable_%s",
+                System.currentTimeMillis()), tls, edgeCertPath, connectOptions);
+        SharedClientFactory factory = new SharedClientFactory(clients);
+        List<MqttConnection> subs = new ArrayList<MqttConnection>();
+        List<LoadCallback> callbacks = new ArrayList<LoadCallback>();
+        List<String> rows = new ArrayList<String>();
+        int entries = 0;
+        int rejected = 0;
+        int failedBatches = 0;
+        try {
+            probePub.connect();
+            probeSub.connect();
+            PubSubCommon.subscribe(probeSub, prefix + "/probe/#", PROBE_QOS);
+            for (int i = 0; i < clients; i++) {
+                MqttConnection sub = factory.create(url, String.format("Sub_subtable_%s", i), tls, edgeCertPath,
+                        PubSubCommon.getDefaultConnectOptions(offlineEdgeUsername, offlineEdgePassword));
+                LoadCallback callback = new LoadCallback();
+                sub.getClient().setCallback(callback);
+                subs.add(sub);
+                callbacks.add(callback);
+            }
+            new BulkConnector(CONNECT_CONCURRENCY).connectAll(subs);
+            rows.add(row(0, null, probe()));
+
+            // Clients take turns per batch, so overlap between them grows evenly with the table
+            LatencyRecorder suback = new LatencyRecorder();
+            int nextCheckpoint = checkpoint;
+            for (int offset = 0; offset < filtersPerClient; offset += batch) {
+                int count = Math.min(batch, filtersPerClient - offset);
+                for (int c = 0; c < subs.size(); c++) {
+                    if (!subs.get(c).getClient().isConnected()) {
+                        continue;
+                    }
+                    long startTime = System.nanoTime();
+                    IMqttToken token = PubSubCommon.subscribe(subs.get(c), filtersOf(c, offset, count),
+                            qosOf(count));
+                    if (token == null) {
+                        failedBatches++;
+                        continue;
+                    }
+                    suback.recordNanos(System.nanoTime() - startTime);
+                    for (int granted : token.getGrantedQos()) {
+                        if (granted == SUBACK_FAILURE) {
+                            rejected++;
+                        }
+                    }
+                    entries += count;
+                    if (entries >= nextCheckpoint) {
+                        rows.add(row(entries, suback.snapshot(), probe()));
+                        suback = new LatencyRecorder();
+                        nextCheckpoint = entries + checkpoint;
+                    }
+                }
+            }
+            if (suback.snapshot().getTotalCount() > 0) {
+                rows.add(row(entries, suback.snapshot(), probe()));
+            }
+            log.info("Subscription table of {} entries over {} clients, {} filters rejected, {} batches failed",
+                    entries, clients, rejected, failedBatches);
+            log.info("Subscription table growth, latency of SUBACK per batch of {} and of probe routing:\n{}\n{}",
+                    batch, ROW_HEADER, BenchmarkCommon.joinRows(rows));
+
+            churn(subs);
+        } finally {
+            probePub.disconnect();
+            probeSub.disconnect();
+            new BulkConnector(CONNECT_CONCURRENCY).disconnectAll(subs);
+            factory.shutdown();
+        }
+        long stray = 0;
+        for (LoadCallback callback : callbacks) {
+            stray += callback.getReceived();
+        }
+        Assert.assertTrue("No filter subscribed", entries > 0);
+        Assert.assertEquals("Table clients got msgs of the probe topic", 0, stray);
+    }
+
+    /**
+     * Unsubscribe a batch of one client's filters and subscribe them again, round robin over the clients
+     */
+    private void churn(List<MqttConnection> subs) throws Exception {
+        if (churnRounds <= 0 || subs.isEmpty()) {
+            return;
+        }
+        LatencyRecorder unsuback = new LatencyRecorder();
+        LatencyRecorder resuback = new LatencyRecorder();
+        int count = Math.min(batch, filtersPerClient);
+        long churnStart = System.nanoTime();
+        for (int round = 0; round < churnRounds; round++) {
+            int c = round % subs.size();
+            MqttConnection sub = subs.get(c);
+            if (!sub.getClient().isConnected()) {
+                continue;
+            }
+            // Cycle through each client's filters
+            int offset = (round / subs.size() * count) % Math.max(1, filtersPerClient - count + 1);
+            String[] filters = filtersOf(c, offset, count);
+            long startTime = System.nanoTime();
+            PubSubCommon.unsubscribe(sub, filters);
+            unsuback.recordNanos(System.nanoTime() - startTime);
+            startTime = System.nanoTime();
+            PubSubCommon.subscribe(sub, filters, qosOf(count));
+            resuback.recordNanos(System.nanoTime() - startTime);
+        }
+        long churnMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - churnStart);
+        log.info("Subscription churn of {} rounds x {} filters in {} ms = {} filters/s, unsubscribe {}, "
+                + "resubscribe {}, probe after churn {}", churnRounds, count, churnMillis, String.format("%.1f",
+                2.0 * churnRounds * count * 1000 / Math.max(1, churnMillis)), unsuback.summary(), resuback.summary(),
+                LatencyRecorder.summary(probe()));
+    }
+
+    /**
+     * Publish the probe msgs one at a time, so their latency is routing and not queueing
+     *
+     * @return  end to end latency of the probe msgs received
+     */
+    private Histogram probe() throws Exception {
+        LatencyRecorder latency = new LatencyRecorder();
+        FanOutCallback callback = new FanOutCallback(new DeliverySkew(probeMessages), latency);
+        probeSub.getClient().setCallback(callback);
+        String topic = String.format("%s/probe/%s", prefix, System.nanoTime());
+        PubSubCommon.publishPipelined(probePub, topic, PROBE_QOS, new PayloadSource(PROBE_PAYLOAD_SIZE, 2),
+                probeMessages, false, 1).await(TimeUnit.SECONDS.toMillis(PROBE_TIMEOUT_SECONDS));
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(PROBE_TIMEOUT_SECONDS);
+        while (callback.getReceived() < probeMessages && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        if (callback.getReceived() < probeMessages) {
+            log.warn("Probe got {}/{} msgs", callback.getReceived(), probeMessages);
+        }
+        return latency.snapshot();
+    }
+
+    /**
+     * Filters offset to offset + count of client c: exact, + and # filters of a device range, each client's
+     * range overlapping half of the next client's
+     */
+    private String[] filtersOf(int c, int offset, int count) {
+        int devicesPerClient = Math.max(1, filtersPerClient / 3);
+        int firstDevice = c * Math.max(1, devicesPerClient / 2);
+        String[] filters = new String[count];
+        for (int i = 0; i < count; i++) {
+            int j = offset + i;
+            int device = firstDevice + j / 3;
+            switch (j % 3) {
+                case 0:
+                    filters[i] = String.format("%s/dev/%s/temperature", prefix, device);
+                    break;
+                case 1:
+                    filters[i] = String.format("%s/dev/%s/+", prefix, device);
+                    break;
+                default:
+                    filters[i] = String.format("%s/dev/%s/#", prefix, device);
+                    break;
+            }
+        }
+        return filters;
+    }
+
+    private int[] qosOf(int count) {
+        int[] qosList = new int[count];
+        Arrays.fill(qosList, qos);
+        return qosList;
+    }
+
+    private static String row(int entries, Histogram suback, Histogram route) {
+        return String.format("%d,%.3f,%.3f,%.3f,%.3f,%.3f", entries, suback == null ? 0
+                : suback.getValueAtPercentile(50) / MICROS_PER_MILLI, suback == null ? 0
+                : suback.getValueAtPercentile(99) / MICROS_PER_MILLI, route.getValueAtPercentile(50)
+                / MICROS_PER_MILLI, route.getValueAtPercentile(99) / MICROS_PER_MILLI, route.getMaxValue()
+                / MICROS_PER_MILLI);
+    }
+}
@@ -46,7 +46,7 @@ public class EdgeDeviceReFunctionTest extends EDGEIntegrationTest {
         MqttConnection sampleCon = PubSubCommon.createMqttConnection(
                 PubSubCommon.generateHostUrl(offlineEdgeUrl, connectionType, offlineEdgePortMap),
                 String.format("Sample_%s", System.currentTimeMillis()), tls, edgeCertPath, connectOptions);
-        checker = new EdgeDeviceMQTTChecker();
+        checker = new EdgeDeviceMQTTChecker(ruleCheckerMultiplexed);
         checker.bindClient(sampleCon);
     }
     
@@ -53,7 +53,7 @@ public class EdgeDeviceReSQLTest extends EDGEIntegrationTest {
         MqttConnection sampleCon = PubSubCommon.createMqttConnection(
                 PubSubCommon.generateHostUrl(offlineEdgeUrl, connectionType, offlineEdgePortMap),
                 String.format("Sample_%s", System.currentTimeMillis()), tls, edgeCertPath, connectOptions);
-        checker = new EdgeDeviceMQTTChecker();
+        checker = new EdgeDeviceMQTTChecker(ruleCheckerMultiplexed);
         checker.bindClient(sampleCon);
     }
     
@@ -1,6 +1,7 @@
 package baetylTest.mqtt;
 
 import baetylTest.EDGEIntegrationTest;
+import baetylTest.SharedNamespace;
 import baetylTest.utils.CheckCommon;
 import baetylTest.utils.PubSubCommon;
 import baetylTest.utils.client.ConnectionType;
@@ -25,6 +26,7 @@ import org.junit.Test;
  * @author Zhao Meng
  */
 @Slf4j
+@SharedNamespace
 public class EdgeDeviceLimitTest extends EDGEIntegrationTest {
 
     public ConnectionType connectionType;
@@ -0,0 +1,23 @@
+package baetylTest.utils;
+
+import java.util.List;
+
+/**
+ * Helpers shared by the benchmarks in baetylTest.benchmark
+ */
+public class BenchmarkCommon {
+
+    /**
+     * Rows of a csv table one per line, for logging under its header
+     */
+    public static String joinRows(List<String> rows) {
+        StringBuilder builder = new StringBuilder();
+        for (String row : rows) {
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(row);
+        }
+        return builder.toString();
+    }
+}
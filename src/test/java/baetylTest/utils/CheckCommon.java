@@ -1,13 +1,13 @@
 package baetylTest.utils;
 
 import baetylTest.utils.client.MqttConnection;
-import baetylTest.utils.client.RandomNameHolder;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 import lombok.extern.slf4j.Slf4j;
+import com.fasterxml.jackson.databind.JsonNode;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.junit.Assert;
 
@@ -16,45 +16,27 @@ import org.junit.Assert;
 public class CheckCommon {
 
     public static void checkMapEquals(Map<String, Object> expectedMap, Map<String, Object> actualMap) throws Exception {
-        Assert.assertEquals("Key is wrong", expectedMap.keySet(), actualMap.keySet());
-        checkMapContains(expectedMap, actualMap);
+        checkJsonEquals(Converter.om.valueToTree(expectedMap), Converter.om.valueToTree(actualMap));
     }
 
+    /**
+     * Check the keys of expectedMap against actualMap, which may have more. Nested maps must be equal, unless
+     * equals is false, then they may have more keys too
+     */
     public static void checkMapContains(Map<String, Object> expectedMap, Map<String, Object> actualMap,
                                         boolean... equals) throws Exception {
-        for (String key : expectedMap.keySet()) {
-            try {
-                if (expectedMap.get(key) instanceof List) {
-                    List expectList = (List) expectedMap.get(key);
-                    List actualList = (List) actualMap.get(key);
-                    Assert.assertEquals("The list size doesn't match", expectList.size(), actualList.size());
-                    for (int index = 0; index < expectList.size(); index++) {
-                        Map<String, Object> expectedMapAgain = Converter.modelToMap(expectList.get(index));
-                        Map<String, Object> actualMapAgain = Converter.modelToMap(actualList.get(index));
-                        log.info("Key {} is in map format", key);
-                        if (equals.length > 0 && !equals[0]) {
-                            checkMapContains(expectedMapAgain, actualMapAgain);
-                        } else {
-                            checkMapEquals(expectedMapAgain, actualMapAgain);
-                        }
-                    }
-                    continue;
-                }
-                Map<String, Object> expectedMapAgain = Converter.modelToMap(expectedMap.get(key));
-                Map<String, Object> actualMapAgain = Converter.modelToMap(actualMap.get(key));
-                log.info("Key {} is in map format", key);
-                if (equals.length > 0 && !equals[0]) {
-                    checkMapContains(expectedMapAgain, actualMapAgain);
-                } else {
-                    checkMapEquals(expectedMapAgain, actualMapAgain);
-                }
-            } catch (Exception e) {
-                String expectedValue = RandomNameHolder.getNumberOfScientificString(String.valueOf(expectedMap
-                        .get(key)));
-                String actualValue = RandomNameHolder.getNumberOfScientificString(String.valueOf(actualMap.get(key)));
-                Assert.assertEquals(String.format("Key %s value is wrong", key), expectedValue, actualValue);
-            }
-        }
+        int containDepth = equals.length > 0 && !equals[0] ? Integer.MAX_VALUE : 1;
+        List<String> differences = JsonComparator.diffContains(Converter.om.<JsonNode>valueToTree(expectedMap),
+                Converter.om.<JsonNode>valueToTree(actualMap), containDepth);
+        Assert.assertTrue("Json is wrong: " + differences, differences.isEmpty());
+    }
+
+    /**
+     * Check two json trees are equal, failing with all their differences
+     */
+    public static void checkJsonEquals(JsonNode expected, JsonNode actual) {
+        List<String> differences = JsonComparator.diffEquals(expected, actual);
+        Assert.assertTrue("Json is wrong: " + differences, differences.isEmpty());
     }
 
     public static void checkConnectionFail(MqttConnection connection, int... errorCode) {
@@ -1,5 +1,13 @@
 package baetylTest.utils;
 
+import baetylTest.utils.msg.EdgeDeviceFunctionCallMsg;
+import baetylTest.utils.msg.EdgeDeviceFunctionResultMsg;
+import baetylTest.utils.msg.EdgeDeviceMsgForComplexSelect;
+import baetylTest.utils.msg.EdgeDeviceNestMsg;
+import baetylTest.utils.msg.EdgeDeviceSimpleMsg;
+import baetylTest.utils.msg.RuleDataMsg;
+import baetylTest.utils.msg.RuleSimpleMsg;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -7,6 +15,8 @@ import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import lombok.extern.slf4j.Slf4j;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
@@ -14,6 +24,8 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 /**
  * Json与Bean的转换工具类
@@ -25,12 +37,98 @@ public class Converter {
 
     public static ObjectMapper om = new ObjectMapper();
     public static Random random = new Random();
+    // Readers and writers are immutable and thread safe, built once per type instead of looked up per call
+    private static final ConcurrentMap<Class<?>, ObjectReader> READERS =
+            new ConcurrentHashMap<Class<?>, ObjectReader>();
+    private static final ConcurrentMap<Class<?>, ObjectWriter> WRITERS =
+            new ConcurrentHashMap<Class<?>, ObjectWriter>();
+    private static final ObjectMapper OM_WITHOUT_NULL = new ObjectMapper();
+    private static final Class<?>[] MSG_TYPES = {Map.class, EdgeDeviceFunctionCallMsg.class,
+            EdgeDeviceFunctionResultMsg.class, EdgeDeviceMsgForComplexSelect.class, EdgeDeviceNestMsg.class,
+            EdgeDeviceSimpleMsg.class, RuleDataMsg.class, RuleSimpleMsg.class};
 
     static {
         om.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
         om.configure(JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS, true);
         om.configure(JsonParser.Feature.ALLOW_SINGLE_QUOTES, true);
         om.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
+        OM_WITHOUT_NULL.setSerializationInclusion(Include.NON_NULL);
+        for (Class<?> type : MSG_TYPES) {
+            readerFor(type);
+            writerFor(type);
+        }
+    }
+
+    /**
+     * 获取类型对应的ObjectReader，首次使用时创建并缓存
+     *
+     * @param type  目标Bean类型
+     * @return      线程安全的ObjectReader
+     */
+    public static ObjectReader readerFor(Class<?> type) {
+        ObjectReader reader = READERS.get(type);
+        if (reader == null) {
+            ObjectReader newReader = om.readerFor(type);
+            reader = READERS.putIfAbsent(type, newReader);
+            reader = reader == null ? newReader : reader;
+        }
+        return reader;
+    }
+
+    /**
+     * 获取类型对应的ObjectWriter，首次使用时创建并缓存
+     *
+     * @param type  Bean类型
+     * @return      线程安全的ObjectWriter
+     */
+    public static ObjectWriter writerFor(Class<?> type) {
+        ObjectWriter writer = WRITERS.get(type);
+        if (writer == null) {
+            ObjectWriter newWriter = om.writerFor(type);
+            writer = WRITERS.putIfAbsent(type, newWriter);
+            writer = writer == null ? newWriter : writer;
+        }
+        return writer;
+    }
+
+    /**
+     * 将json字节转换为Bean，省去String的编解码
+     *
+     * @param json          utf-8编码的Json
+     * @param toValueType   目标Bean类型
+     * @param <T>           目标Bean类
+     * @return   填充完成的目标Bean
+     * @throws IOException
+     */
+    public static <T> T bytesToModel(byte[] json, Class<T> toValueType) throws IOException {
+        return readerFor(toValueType).readValue(json);
+    }
+
+    /**
+     * 将Bean转换为utf-8编码的Json字节，可直接作为msg的payload
+     *
+     * @param model  目标Bean实例
+     * @param <T>    目标Bean类型
+     * @return       Json字节
+     * @throws JsonProcessingException
+     */
+    public static <T> byte[] modelToBytes(T model) throws JsonProcessingException {
+        if (model == null) {
+            return om.writeValueAsBytes(null);
+        }
+        return writerFor(model.getClass()).writeValueAsBytes(model);
+    }
+
+    /**
+     * 将json字节转换为Map
+     *
+     * @param json  utf-8编码的Json
+     * @return      转换来的Map
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> bytesToMap(byte[] json) throws IOException {
+        return readerFor(Map.class).readValue(json);
     }
 
     /**
@@ -43,7 +141,7 @@ public class Converter {
      * @throws Exception
      */
     public static <T> T jsonToModel(String jsonValue, Class<T> toValueType) throws Exception {
-        return om.readValue(jsonValue, toValueType);
+        return readerFor(toValueType).readValue(jsonValue);
     }
 
     /**
@@ -55,7 +153,10 @@ public class Converter {
      * @throws JsonProcessingException
      */
     public static <T> String modelToJson(T model) throws JsonProcessingException {
-        return om.writeValueAsString(model);
+        if (model == null) {
+            return om.writeValueAsString(null);
+        }
+        return writerFor(model.getClass()).writeValueAsString(model);
     }
 
     public static <T> String modelToJsonUsingJsonNode (T model) throws JsonProcessingException {
@@ -73,9 +174,7 @@ public class Converter {
      * @throws Exception
      */
     public static <T> T jsonToModelWithoutNull(String jsonValue, Class<T> toValueType) throws Exception {
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.setSerializationInclusion(Include.NON_NULL);
-        return objectMapper.readValue(jsonValue, toValueType);
+        return OM_WITHOUT_NULL.readValue(jsonValue, toValueType);
     }
 
     /**
@@ -88,9 +187,7 @@ public class Converter {
      * @throws JsonProcessingException
      */
     public static <T> String modelToJsonWithoutNull(T model) throws JsonProcessingException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.setSerializationInclusion(Include.NON_NULL);
-        return objectMapper.writeValueAsString(model);
+        return OM_WITHOUT_NULL.writeValueAsString(model);
     }
 
     /**
@@ -129,6 +226,6 @@ public class Converter {
      */
     @SuppressWarnings("unchecked")
     public static <T> Map<String, Object> modelToMap(T model) throws Exception {
-        return jsonToModel(modelToJson(model), Map.class);
+        return bytesToMap(modelToBytes(model));
     }
 }
\ No newline at end of file
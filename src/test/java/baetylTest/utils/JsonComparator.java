@@ -0,0 +1,134 @@
+package baetylTest.utils;
+
+import baetylTest.utils.client.RandomNameHolder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+
+/**
+ * Comparison of json trees, walking both once and collecting every difference instead of failing on the first.
+ *
+ * Numbers compare by value, so 1, 1.0 and 1E0 are equal, and a numeric string equals the number it spells.
+ * Two numeric strings compare by value too, so "1.0E7" equals "10000000" as it did with
+ * RandomNameHolder.getNumberOfScientificString. Other leaves compare by text, a missing key like null.
+ * Objects compare key by key, arrays element by element.
+ */
+public class JsonComparator {
+
+    private static final String ROOT = "$";
+
+    /**
+     * Objects must have the same keys, at every level
+     *
+     * @return  one line per difference, empty if the trees match
+     */
+    public static List<String> diffEquals(JsonNode expected, JsonNode actual) {
+        List<String> differences = new ArrayList<String>();
+        compare(ROOT, expected, actual, 0, differences);
+        return differences;
+    }
+
+    /**
+     * Objects may have keys the expected ones don't, down to containDepth levels, 1 for the top object only
+     *
+     * @return  one line per difference, empty if the trees match
+     */
+    public static List<String> diffContains(JsonNode expected, JsonNode actual, int containDepth) {
+        List<String> differences = new ArrayList<String>();
+        compare(ROOT, expected, actual, containDepth, differences);
+        return differences;
+    }
+
+    private static void compare(String path, JsonNode expected, JsonNode actual, int containDepth,
+                                List<String> differences) {
+        if (expected == null || expected.isMissingNode()) {
+            expected = NullNode.getInstance();
+        }
+        if (actual == null || actual.isMissingNode()) {
+            actual = NullNode.getInstance();
+        }
+        if (expected.isObject() && actual.isObject()) {
+            compareObjects(path, expected, actual, containDepth, differences);
+        } else if (expected.isArray() && actual.isArray()) {
+            compareArrays(path, expected, actual, containDepth, differences);
+        } else if (expected.isContainerNode() || actual.isContainerNode()) {
+            differences.add(String.format("%s expected %s but was %s", path, expected, actual));
+        } else if (!leafEquals(expected, actual)) {
+            differences.add(String.format("%s expected %s but was %s", path, expected.asText(), actual.asText()));
+        }
+    }
+
+    private static void compareObjects(String path, JsonNode expected, JsonNode actual, int containDepth,
+                                       List<String> differences) {
+        Iterator<Map.Entry<String, JsonNode>> fields = expected.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String fieldPath = path + "." + field.getKey();
+            JsonNode actualValue = actual.get(field.getKey());
+            if (actualValue == null && containDepth <= 0) {
+                differences.add(String.format("%s is missing", fieldPath));
+                continue;
+            }
+            compare(fieldPath, field.getValue(), actualValue, containDepth - 1, differences);
+        }
+        if (containDepth > 0) {
+            return;
+        }
+        Iterator<String> names = actual.fieldNames();
+        while (names.hasNext()) {
+            String name = names.next();
+            if (!expected.has(name)) {
+                differences.add(String.format("%s.%s is unexpected", path, name));
+            }
+        }
+    }
+
+    private static void compareArrays(String path, JsonNode expected, JsonNode actual, int containDepth,
+                                      List<String> differences) {
+        if (expected.size() != actual.size()) {
+            differences.add(String.format("%s size expected %s but was %s", path, expected.size(), actual.size()));
+        }
+        int size = Math.min(expected.size(), actual.size());
+        for (int i = 0; i < size; i++) {
+            compare(path + "[" + i + "]", expected.get(i), actual.get(i), containDepth - 1, differences);
+        }
+    }
+
+    private static boolean leafEquals(JsonNode expected, JsonNode actual) {
+        if (expected.isIntegralNumber() && actual.isIntegralNumber() && expected.canConvertToLong()
+                && actual.canConvertToLong()) {
+            return expected.longValue() == actual.longValue();
+        }
+        if ((expected.isNumber() && (actual.isNumber() || actual.isTextual()))
+                || (expected.isTextual() && actual.isNumber())) {
+            return numberEquals(expected, actual);
+        }
+        if (expected.asText().equals(actual.asText())) {
+            return true;
+        }
+        return expected.isTextual() && actual.isTextual() && isNumeric(expected) && isNumeric(actual)
+                && numberEquals(expected, actual);
+    }
+
+    private static boolean numberEquals(JsonNode expected, JsonNode actual) {
+        try {
+            return toDecimal(expected).compareTo(toDecimal(actual)) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isNumeric(JsonNode node) {
+        return RandomNameHolder.pattern.matcher(node.asText()).matches();
+    }
+
+    private static BigDecimal toDecimal(JsonNode node) {
+        return node.isNumber() ? node.decimalValue() : new BigDecimal(node.asText().trim());
+    }
+}
@@ -2,15 +2,19 @@ package baetylTest.utils;
 
 import baetylTest.utils.client.ConnectionType;
 import baetylTest.utils.client.MqttConnection;
+import baetylTest.utils.client.OpenLoopPublisher;
+import baetylTest.utils.client.PipelinedPublisher;
 import baetylTest.utils.client.PubSubCallback;
+import baetylTest.utils.client.PublishBatch;
+import baetylTest.utils.client.SharedClientFactory;
+import baetylTest.utils.client.SslContextCache;
 import baetylTest.utils.fusesource.FuseCallbacks;
+import baetylTest.utils.perf.ArrivalSchedule;
+import baetylTest.utils.perf.LatencyStats;
+import baetylTest.utils.perf.LatencyType;
+import baetylTest.utils.perf.PayloadEnvelope;
+import baetylTest.utils.perf.PayloadSource;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.security.KeyStore;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -19,14 +23,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
 
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.fusesource.hawtbuf.UTF8Buffer;
 import org.fusesource.mqtt.client.Callback;
 import org.fusesource.mqtt.client.CallbackConnection;
 import org.fusesource.mqtt.client.MQTT;
@@ -46,10 +49,8 @@ public class PubSubCommon {
 
     private static Random random = new Random();
     private static final String CHARSET = "utf-8";
-    private static final String CERT_ALGORITHM = "X.509";
-    private static final String TRUST_ALGORITHM = "X509";
-    private static final String CERT_TYPE = "TLS";
-    private static final String CERT_FILE_TYPE = "ca";
+    // Bulk subscribes above this many topics are logged by count only
+    private static final int LOG_TOPICS_LIMIT = 20;
 
     public static String generateHostUrl(String hostname, ConnectionType connectionType,
              Map<String, Integer> portMap) {
@@ -71,6 +72,15 @@ public class PubSubCommon {
                 connectOptions, authCert, clientCertPath, clientKeyPath);
     }
 
+    /**
+     * Connection running on the shared threads of factory, for simulating thousands of devices in one JVM
+     */
+    public static MqttConnection createMqttConnection(String brokerUrl, String clientId, boolean tls, String certPath,
+                                                      MqttConnectOptions connectOptions, SharedClientFactory factory)
+            throws Exception {
+        return factory.create(brokerUrl, clientId, tls, certPath, connectOptions);
+    }
+
     public static MqttConnectOptions getDefaultConnectOptions(String username, String password) {
         MqttConnectOptions conOpts = new MqttConnectOptions();
         conOpts.setUserName(username);
@@ -92,7 +102,7 @@ public class PubSubCommon {
                                 String username, String password) throws Exception {
         MQTT mqtt = new MQTT();
 
-        mqtt.setClientId(clientId);
+        mqtt.setClientId(TopicNamespace.current().clientId(clientId));
         mqtt.setHost(brokerUrl);
         mqtt.setUserName(username);
         mqtt.setPassword(password);
@@ -259,10 +269,18 @@ public class PubSubCommon {
         }
 
         try {
-            IMqttToken token = client.subscribe(topics, qosList);
+            long startTime = System.nanoTime();
+            String[] namespacedTopics = connection.getNamespace().topics(topics);
+            IMqttToken token = client.subscribe(namespacedTopics, qosList);
             token.waitForCompletion(MqttConnection.ACTION_TIME_OUT);
-            log.info("Client {} subscribed topics {} get {}", connection.getClient().getClientId(),
-                    Arrays.toString(topics), token.getResponse().toString());
+            LatencyStats.recordNanos(LatencyType.SUBSCRIBE, System.nanoTime() - startTime);
+            connection.addSubscriptions(namespacedTopics, qosList);
+            if (topics.length > LOG_TOPICS_LIMIT) {
+                log.info("Client {} subscribed {} topics", connection.getClient().getClientId(), topics.length);
+            } else {
+                log.info("Client {} subscribed topics {} get {}", connection.getClient().getClientId(),
+                        Arrays.toString(topics), token.getResponse().toString());
+            }
             return token;
         } catch (Exception e) {
             log.error("Sub failed", e);
@@ -281,8 +299,12 @@ public class PubSubCommon {
             connection.connect();
         }
 
-        IMqttToken token = connection.getClient().subscribe(topic, qos);
+        long startTime = System.nanoTime();
+        String namespacedTopic = connection.getNamespace().topic(topic);
+        IMqttToken token = connection.getClient().subscribe(namespacedTopic, qos);
         token.waitForCompletion(MqttConnection.ACTION_TIME_OUT);
+        LatencyStats.recordNanos(LatencyType.SUBSCRIBE, System.nanoTime() - startTime);
+        connection.addSubscriptions(new String[]{namespacedTopic}, new int[]{qos});
         log.info("Subscribe topic {} got {}", topic, token.getResponse().toString());
         return token;
     }
@@ -302,14 +324,67 @@ public class PubSubCommon {
 
         try {
             log.info("Client {} start to publish {} to topic {}", client.getClientId(), message, topic);
-            client.publish(topic, message.getBytes(CHARSET), qos, retained).waitForCompletion(MqttConnection
+            long startTime = System.nanoTime();
+            client.publish(connection.getNamespace().topic(topic), toPayload(message, CHARSET), qos, retained)
+                    .waitForCompletion(MqttConnection
                     .ACTION_TIME_OUT);
+            if (qos > 0) {
+                LatencyStats.recordNanos(LatencyType.PUBLISH_ACK, System.nanoTime() - startTime);
+            }
             log.info("Client {} published {} to topic {} successfully", client.getClientId(), message, topic);
         } catch (Exception e) {
             log.error(String.format("Pub %s published %s failed", client.getClientId(), message), e);
         }
     }
 
+    /**
+     * Publish msgs keeping up to window of them in flight instead of waiting for every ack
+     *
+     * @return  batch handle to await acks on
+     */
+    public static PublishBatch publishPipelined(MqttConnection connection, String topic, int qos,
+                                                List<String> messages, boolean retained, int window) throws Exception {
+        MqttAsyncClient client = connection.getClient();
+        if (client == null || !client.isConnected()) {
+            log.info("Pub reconnect");
+            connection.connect();
+        }
+        return new PipelinedPublisher(connection, window).publish(topic, qos, messages, retained);
+    }
+
+    /**
+     * Publish count msgs from a pooled payload source keeping up to window of them in flight
+     *
+     * @return  batch handle to await acks on
+     */
+    public static PublishBatch publishPipelined(MqttConnection connection, String topic, int qos,
+                                                PayloadSource source, int count, boolean retained, int window)
+            throws Exception {
+        MqttAsyncClient client = connection.getClient();
+        if (client == null || !client.isConnected()) {
+            log.info("Pub reconnect");
+            connection.connect();
+        }
+        return new PipelinedPublisher(connection, window).publish(topic, qos, source, count, retained);
+    }
+
+    /**
+     * Publish msgs at the intended times of schedule, latency is measured from those times so hub stalls
+     * show up in the percentiles instead of slowing the sender down
+     *
+     * @return  batch handle to await acks on
+     */
+    public static PublishBatch publishOpenLoop(MqttConnection connection, String topic, int qos,
+                                               List<String> messages, boolean retained, int window,
+                                               ArrivalSchedule schedule) throws Exception {
+        MqttAsyncClient client = connection.getClient();
+        if (client == null || !client.isConnected()) {
+            log.info("Pub reconnect");
+            connection.connect();
+        }
+        return new OpenLoopPublisher(connection, window, schedule).publish(topic, qos, messages, retained);
+    }
+
     public static void publish(final CallbackConnection connection, final String topic, final QoS qos,
                                final String message, final boolean retained) throws Exception {
 
@@ -318,11 +393,13 @@ public class PubSubCommon {
             return;
         }
 
+        final byte[] payload = toPayload(message, null);
+        final String namespacedTopic = TopicNamespace.current().topic(topic);
         connection.getDispatchQueue().execute(new Runnable() {
 
             @Override
             public void run() {
-                connection.publish(topic, message.getBytes(), qos, retained, new Callback<Void>() {
+                connection.publish(namespacedTopic, payload, qos, retained, new Callback<Void>() {
 
                     @Override
                     public void onSuccess(Void value) {
@@ -338,7 +415,34 @@ public class PubSubCommon {
         });
     }
 
+    /**
+     * Publish one msg from a pooled payload source without logging it, stamped when the dispatch queue sends it
+     */
+    public static void publish(final CallbackConnection connection, String topic, final QoS qos,
+                               final PayloadSource source, final boolean retained, final Callback<Void> callback) {
+        final UTF8Buffer namespacedTopic = new UTF8Buffer(TopicNamespace.current().topic(topic));
+        connection.getDispatchQueue().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                connection.publish(namespacedTopic, source.nextBuffer(), qos, retained, callback);
+            }
+        });
+    }
+
+    /**
+     * Encode a msg, wrapping it into a latency envelope when PayloadEnvelope is enabled
+     */
+    public static byte[] toPayload(String message, String charset) throws Exception {
+        byte[] body = charset == null ? message.getBytes() : message.getBytes(charset);
+        return PayloadEnvelope.isEnabled() ? PayloadEnvelope.wrap(body) : body;
+    }
+
     public static void unsubscribe(MqttConnection connection, String topic) throws Exception {
+        unsubscribe(connection, new String[]{topic});
+    }
+
+    public static void unsubscribe(MqttConnection connection, String[] topics) throws Exception {
 
         if (null == connection) {
             return;
@@ -350,7 +454,11 @@ public class PubSubCommon {
             return;
         }
 
-        client.unsubscribe(topic).waitForCompletion(MqttConnection.ACTION_TIME_OUT);
+        String[] namespacedTopics = connection.getNamespace().topics(topics);
+        client.unsubscribe(namespacedTopics).waitForCompletion(MqttConnection.ACTION_TIME_OUT);
+        for (String namespacedTopic : namespacedTopics) {
+            connection.removeSubscription(namespacedTopic);
+        }
     }
 
     public static void disconnectCallbackConnection(final CallbackConnection connection) {
@@ -377,23 +485,6 @@ public class PubSubCommon {
     }
 
     public static SSLContext genSSLContext(String certPath) throws Exception {
-        File file = new File(certPath);
-        InputStream certInputStream = new FileInputStream(file);
-
-        CertificateFactory certFactory = CertificateFactory.getInstance(CERT_ALGORITHM);
-        Certificate cert = certFactory.generateCertificate(certInputStream);
-
-        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-        keyStore.load(null);
-        keyStore.setCertificateEntry(CERT_FILE_TYPE, cert);
-
-        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TRUST_ALGORITHM);
-        trustManagerFactory.init(keyStore);
-        TrustManager[] trustManagers = trustManagerFactory.getTrustManagers();
-
-        SSLContext context = SSLContext.getInstance(CERT_TYPE);
-        context.init(null, trustManagers, null);
-
-        return context;
+        return SslContextCache.getContext(SslContextCache.TLS, certPath, null, null);
     }
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+package baetylTest.utils;
+
+/**
+ * Mqtt topic filter matching
+ */
+public class TopicMatcher {
+
+    public static final String LEVEL_SEPARATOR = "/";
+    public static final String SINGLE_LEVEL = "+";
+    public static final String MULTI_LEVEL = "#";
+
+    /**
+     * Check whether topic name matches filter, e.g. "a/+/c" and "a/#" match "a/b/c"
+     *
+     * @param filter  topic filter, may contain + and #
+     * @param topic   topic name without wildcards
+     * @return  true if matched
+     */
+    public static boolean matches(String filter, String topic) {
+        String[] filterLevels = filter.split(LEVEL_SEPARATOR, -1);
+        String[] topicLevels = topic.split(LEVEL_SEPARATOR, -1);
+        for (int i = 0; i < filterLevels.length; i++) {
+            if (MULTI_LEVEL.equals(filterLevels[i])) {
+                return true;
+            }
+            if (i >= topicLevels.length) {
+                return false;
+            }
+            if (!SINGLE_LEVEL.equals(filterLevels[i]) && !filterLevels[i].equals(topicLevels[i])) {
+                return false;
+            }
+        }
+        return filterLevels.length == topicLevels.length;
+    }
+
+    public static boolean isWildcard(String topic) {
+        return topic.contains(SINGLE_LEVEL) || topic.contains(MULTI_LEVEL);
+    }
+
+    /**
+     * Check filter syntax, + and # must take a whole level and # must be the last level
+     */
+    public static boolean isValidFilter(String filter) {
+        String[] levels = filter.split(LEVEL_SEPARATOR, -1);
+        for (int i = 0; i < levels.length; i++) {
+            if (MULTI_LEVEL.equals(levels[i])) {
+                if (i != levels.length - 1) {
+                    return false;
+                }
+            } else if (!SINGLE_LEVEL.equals(levels[i]) && isWildcard(levels[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether every topic matched by filter is matched by permit as well, e.g. "a/#" covers "a/+/c"
+     *
+     * @param permit  topic filter granted, may contain + and #
+     * @param filter  topic filter requested, may contain + and #
+     * @return  true if covered
+     */
+    public static boolean covers(String permit, String filter) {
+        String[] permitLevels = permit.split(LEVEL_SEPARATOR, -1);
+        String[] filterLevels = filter.split(LEVEL_SEPARATOR, -1);
+        for (int i = 0; i < permitLevels.length; i++) {
+            if (MULTI_LEVEL.equals(permitLevels[i])) {
+                return true;
+            }
+            if (i >= filterLevels.length || MULTI_LEVEL.equals(filterLevels[i])) {
+                return false;
+            }
+            if (!SINGLE_LEVEL.equals(permitLevels[i]) && !permitLevels[i].equals(filterLevels[i])) {
+                return false;
+            }
+        }
+        return permitLevels.length == filterLevels.length;
+    }
+}
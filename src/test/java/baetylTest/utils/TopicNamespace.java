@@ -0,0 +1,197 @@
+package baetylTest.utils;
+
+import baetylTest.utils.client.RandomNameHolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.extern.slf4j.Slf4j;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Per test prefix of topics and client ids, so test classes can run in parallel on one baetyl.
+ *
+ * Topics pinned by the demo config (rule/subscription topics and principal permits) are never prefixed,
+ * because baetyl only routes and authorizes those exact names. Permits made only of wildcards, like + or
+ * +/#, are not pins, they'd pin every topic of their depth. System topics starting with $ are never
+ * prefixed either. Enabled with -Dbaetyl.namespace=true, otherwise every method is identity.
+ */
+@Slf4j
+public class TopicNamespace {
+
+    public static final String ENABLE_PROPERTY = "baetyl.namespace";
+    public static final String DEMO_CONF_PROPERTY = "baetyl.demo.conf.path";
+    public static final String DEFAULT_DEMO_CONF_PATH = "./baetylDemo/var/db/baetyl";
+    public static final TopicNamespace NONE = new TopicNamespace("");
+
+    private static final String CONF_SUFFIX = ".yml";
+    private static final String TOPIC_KEY = "topic";
+    private static final String PERMIT_KEY = "permit";
+    private static final String CLIENT_ID_SEPARATOR = "_";
+    private static final String PREFIX = "ns";
+    private static final String SYSTEM_TOPIC_PREFIX = "$";
+    private static final int PREFIX_LENGTH = 5;
+    private static volatile TopicNamespace current = NONE;
+    private static Set<String> pinnedTopics;
+
+    private final String prefix;
+
+    public TopicNamespace(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLE_PROPERTY);
+    }
+
+    /**
+     * Start a new namespace for the test about to run. Tests run one at a time in a test JVM,
+     * connections created afterwards keep the namespace they were created in.
+     *
+     * @param shared  true for tests which depend on global names, like length limit or permission tests
+     * @return  the new current namespace
+     */
+    public static TopicNamespace begin(boolean shared) {
+        current = shared || !isEnabled() ? NONE
+                : new TopicNamespace(RandomNameHolder.getRandomString(PREFIX, PREFIX_LENGTH));
+        log.info("Topic namespace is [{}]", current.prefix);
+        return current;
+    }
+
+    public static TopicNamespace current() {
+        return current;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String topic(String topic) {
+        if (prefix.isEmpty() || topic.startsWith(prefix + TopicMatcher.LEVEL_SEPARATOR)
+                || topic.startsWith(SYSTEM_TOPIC_PREFIX) || isPinned(topic)) {
+            return topic;
+        }
+        return prefix + TopicMatcher.LEVEL_SEPARATOR + topic;
+    }
+
+    public String[] topics(String[] topics) {
+        if (prefix.isEmpty()) {
+            return topics;
+        }
+        String[] result = new String[topics.length];
+        for (int i = 0; i < topics.length; i++) {
+            result[i] = topic(topics[i]);
+        }
+        return result;
+    }
+
+    public String strip(String topic) {
+        if (prefix.isEmpty() || !topic.startsWith(prefix + TopicMatcher.LEVEL_SEPARATOR)) {
+            return topic;
+        }
+        return topic.substring(prefix.length() + TopicMatcher.LEVEL_SEPARATOR.length());
+    }
+
+    public String clientId(String clientId) {
+        if (prefix.isEmpty() || clientId.startsWith(prefix + CLIENT_ID_SEPARATOR)) {
+            return clientId;
+        }
+        return prefix + CLIENT_ID_SEPARATOR + clientId;
+    }
+
+    /**
+     * A topic name is pinned if any pinned filter matches it, a filter only if it is pinned itself
+     */
+    public static boolean isPinned(String topic) {
+        Set<String> pinned = getPinnedTopics();
+        if (pinned.contains(topic)) {
+            return true;
+        }
+        if (TopicMatcher.isWildcard(topic)) {
+            return false;
+        }
+        for (String filter : pinned) {
+            if (TopicMatcher.matches(filter, topic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static synchronized Set<String> getPinnedTopics() {
+        if (pinnedTopics == null) {
+            Set<String> result = new HashSet<String>();
+            File confDir = new File(System.getProperty(DEMO_CONF_PROPERTY, DEFAULT_DEMO_CONF_PATH));
+            collectConfFiles(confDir, result);
+            // Permits like + or # allow whole depths, they don't pin names
+            Iterator<String> iterator = result.iterator();
+            while (iterator.hasNext()) {
+                if (isWildcardOnly(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+            log.info("Pinned topics from {}: {}", confDir.getPath(), result);
+            pinnedTopics = Collections.unmodifiableSet(result);
+        }
+        return pinnedTopics;
+    }
+
+    private static boolean isWildcardOnly(String filter) {
+        for (String level : filter.split(TopicMatcher.LEVEL_SEPARATOR, -1)) {
+            if (!TopicMatcher.SINGLE_LEVEL.equals(level) && !TopicMatcher.MULTI_LEVEL.equals(level)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void collectConfFiles(File file, Set<String> result) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            for (File child : children == null ? new File[0] : children) {
+                collectConfFiles(child, result);
+            }
+        } else if (file.getName().endsWith(CONF_SUFFIX)) {
+            try {
+                InputStream input = new FileInputStream(file);
+                try {
+                    collectTopics(new Yaml().load(input), result);
+                } finally {
+                    input.close();
+                }
+            } catch (Exception e) {
+                log.warn("Skip conf {}: {}", file.getPath(), e.getMessage());
+            }
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static void collectTopics(Object node, Set<String> result) {
+        if (node instanceof Map) {
+            for (Object entry : ((Map) node).entrySet()) {
+                Object key = ((Map.Entry) entry).getKey();
+                Object value = ((Map.Entry) entry).getValue();
+                if (TOPIC_KEY.equals(key) && value instanceof String) {
+                    result.add((String) value);
+                } else if (PERMIT_KEY.equals(key) && value instanceof List) {
+                    for (Object permit : (List) value) {
+                        result.add(String.valueOf(permit));
+                    }
+                } else {
+                    collectTopics(value, result);
+                }
+            }
+        } else if (node instanceof List) {
+            for (Object item : (List) node) {
+                collectTopics(item, result);
+            }
+        }
+    }
+}
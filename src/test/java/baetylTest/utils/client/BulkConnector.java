@@ -0,0 +1,110 @@
+package baetylTest.utils.client;
+
+import baetylTest.utils.perf.LatencyRecorder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Connects or disconnects a collection of connections with at most concurrency of them in progress.
+ *
+ * Each call returns as soon as the last connection finished and reports the phase with its own latency
+ * histogram, so a connect storm and the teardown after it can be compared side by side.
+ */
+@Slf4j
+public class BulkConnector {
+
+    public static final String CONNECT = "connect";
+    public static final String DISCONNECT = "disconnect";
+
+    private final int concurrency;
+
+    public BulkConnector(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency must be positive, not " + concurrency);
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Connect all connections, a failed connect is counted and doesn't stop the others
+     */
+    public BulkResult connectAll(Collection<MqttConnection> connections) throws InterruptedException {
+        return run(CONNECT, connections, new Operation() {
+            @Override
+            public boolean apply(MqttConnection connection) throws Exception {
+                return connection.connect();
+            }
+        });
+    }
+
+    /**
+     * Disconnect all connections, already disconnected ones count as succeeded
+     */
+    public BulkResult disconnectAll(Collection<MqttConnection> connections) throws InterruptedException {
+        return run(DISCONNECT, connections, new Operation() {
+            @Override
+            public boolean apply(MqttConnection connection) {
+                return connection.disconnect();
+            }
+        });
+    }
+
+    private BulkResult run(String phase, Collection<MqttConnection> connections, final Operation operation)
+            throws InterruptedException {
+        BulkResult result = new BulkResult(phase);
+        result.setAttempted(connections.size());
+        if (connections.isEmpty()) {
+            return result;
+        }
+
+        final LatencyRecorder latency = new LatencyRecorder();
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(connections.size());
+        for (final MqttConnection connection : connections) {
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    long startTime = System.nanoTime();
+                    try {
+                        return operation.apply(connection);
+                    } finally {
+                        latency.recordNanos(System.nanoTime() - startTime);
+                    }
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, connections.size()));
+        long startTime = System.currentTimeMillis();
+        try {
+            for (Future<Boolean> future : executor.invokeAll(tasks)) {
+                try {
+                    if (future.get()) {
+                        result.setSucceeded(result.getSucceeded() + 1);
+                    } else {
+                        result.setFailed(result.getFailed() + 1);
+                    }
+                } catch (Exception e) {
+                    result.setFailed(result.getFailed() + 1);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        result.setMillis(System.currentTimeMillis() - startTime);
+        result.setLatency(latency.snapshot());
+        log.info("Bulk {}", result.summary());
+        return result;
+    }
+
+    private interface Operation {
+        boolean apply(MqttConnection connection) throws Exception;
+    }
+}
@@ -0,0 +1,26 @@
+package baetylTest.utils.client;
+
+import baetylTest.utils.perf.LatencyRecorder;
+
+import lombok.Data;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Result of one {@link BulkConnector} phase over a collection of connections
+ */
+@Data
+public class BulkResult {
+
+    private final String phase;
+    private int attempted;
+    private int succeeded;
+    private int failed;
+    private long millis;
+    // Per connection time of this phase only, microseconds
+    private Histogram latency;
+
+    public String summary() {
+        return String.format("%s %d/%d (failed %d) in %d ms, %s", phase, succeeded, attempted, failed, millis,
+                latency == null ? "no latency" : LatencyRecorder.summary(latency));
+    }
+}
@@ -3,11 +3,15 @@ package baetylTest.utils.client;
 import baetylTest.utils.CheckCommon;
 import baetylTest.utils.Converter;
 import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.TopicMatcher;
 import baetylTest.utils.msg.EdgeDeviceFunctionResultMsg;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import lombok.Data;
@@ -26,8 +30,25 @@ public class EdgeDeviceMQTTChecker {
 
     public Map<String, MqttConnection> topicDevices = new HashMap<>();
     public MqttConnection sampleConnection;
+    // Subscribed to all bound topics in multiplexed mode, msgs are told apart by topic
+    public MqttConnection sharedConnection;
     public static final String ERROR_TYPE = "errorType";
     public static final String NOT_NAMED_KEY = "NOT_NAMED_0";
+    private static final int CHECK_QOS = 1;
+    private final boolean multiplexed;
+    private final Set<String> sharedTopics = new LinkedHashSet<>();
+
+    public EdgeDeviceMQTTChecker() {
+        this(false);
+    }
+
+    /**
+     * @param multiplexed  check all topics over one connection instead of one connection per topic. Wildcard
+     *                     filters still get their own, as their msgs can't be told apart by topic
+     */
+    public EdgeDeviceMQTTChecker(boolean multiplexed) {
+        this.multiplexed = multiplexed;
+    }
 
     public void bindClient(Object client) {
         // Init sample connection
@@ -36,94 +57,162 @@ public class EdgeDeviceMQTTChecker {
 
     public void bindTopic(String topic) throws Exception {
         if (!topicDevices.containsKey(topic)) {
-            String username = sampleConnection.getConnOpts().getUserName();
-            String password = new String(sampleConnection.getConnOpts().getPassword());
-            MqttConnectOptions conOptions = PubSubCommon.getDefaultConnectOptions(username, password);
-            String url = sampleConnection.getClient().getServerURI();
-            String clientId = "mqttCheck" + UUID.randomUUID().toString();
-            MqttConnection connection = PubSubCommon.createMqttConnection(url, clientId, sampleConnection.isTls(),
-                    sampleConnection.getCertPath(), conOptions);
-            connection.setCallBack(new PubSubCallback());
-            topicDevices.put(topic, connection);
+            if (multiplexed && !TopicMatcher.isWildcard(topic)) {
+                if (sharedConnection == null) {
+                    sharedConnection = createConnection();
+                }
+                topicDevices.put(topic, sharedConnection);
+            } else {
+                topicDevices.put(topic, createConnection());
+            }
         }
     }
 
     public void startSub() throws Exception {
+        List<String> newSharedTopics = new ArrayList<>();
+        boolean dedicated = false;
         for (String topic : topicDevices.keySet()) {
             MqttConnection device = topicDevices.get(topic);
+            if (device == sharedConnection) {
+                if (!sharedTopics.contains(topic)) {
+                    newSharedTopics.add(topic);
+                }
+                continue;
+            }
             device.connect();
-            PubSubCommon.subscribe(device, topic, 1);
+            PubSubCommon.subscribe(device, topic, CHECK_QOS);
+            dedicated = true;
+        }
+        if (!newSharedTopics.isEmpty()) {
+            if (!sharedConnection.getClient().isConnected()) {
+                sharedConnection.connect();
+            }
+            Assert.assertNotNull("Subscribe checked topics failed", PubSubCommon.subscribe(sharedConnection,
+                    newSharedTopics, CHECK_QOS));
+            sharedTopics.addAll(newSharedTopics);
+        }
+        // The SUBACK of the shared connection already covers all its topics
+        if (dedicated) {
+            Thread.sleep(1000);
         }
-        Thread.sleep(1000);
     }
 
+    /**
+     * Check the msgs received on topic match expectList in any order, each expected msg matched by one result.
+     *
+     * Results are matched by a {@link ResultVerifier} as they arrive, waiting until all are matched or no msg
+     * came for PubSubCallback.WAIT_TIME_OUT. Msgs already received after that count as unexpected.
+     */
     public void checkResultMessage(String topic, List<String> expectList) throws Exception {
         if (expectList.size() == 0) {
             MqttConnection device = topicDevices.get(topic);
             Assert.assertFalse("Received msgs are not empty", device.getCallback().checkContain(topic));
-        } else {
-            List<String> receivedMsgs = topicDevices.get(topic).getCallback()
-                    .waitAndGetReveiveListMap(topic, expectList.size());
-            Assert.assertEquals(String.format("Received msgs size is wrong, expected %s, but was %s",
-                    expectList.toString(), receivedMsgs.toString()), expectList.size(), receivedMsgs.size());
-
-            for (String expectedMsg : expectList) {
-                // Check whether it is in json format
-                int index = expectList.indexOf(expectedMsg);
-                String actualMsg = receivedMsgs.get(index);
-                try {
-                    Map<String, Object> actualMap = Converter.jsonToModel(actualMsg, Map.class);
-                    
-                    if (actualMap.containsKey("result")) {
-                        log.info("Getting result model from nest msgs"); // TODO ugly implement
-                        actualMap = (Map<String, Object>) actualMap.get("result");
-                        actualMsg = Converter.modelToJsonUsingJsonNode(actualMap);
-                        Map<String, Object> temp = Converter.jsonToModel(expectedMsg, Map.class);
-                        temp = (Map<String, Object>) temp.get("result");
-                        expectedMsg = Converter.modelToJsonUsingJsonNode(temp);
-                    }
-                    
-                    // Check whether it is in function result
-                    try {
-                        EdgeDeviceFunctionResultMsg expectedFucntionResult = Converter.jsonToModel(expectedMsg,
-                                EdgeDeviceFunctionResultMsg.class);
-                        EdgeDeviceFunctionResultMsg actualFucntionResult = Converter.jsonToModel(actualMsg,
-                                EdgeDeviceFunctionResultMsg.class);
-                        checkFunctionResult(expectedFucntionResult, actualFucntionResult);
-                    } catch (Exception e) {
-                        // May be error msg
-                        if (actualMap.containsKey(ERROR_TYPE)) {
-                            Assert.assertEquals("Error type is wrong", expectedMsg, actualMap.get(ERROR_TYPE));
-                        } else if (actualMap.containsKey(NOT_NAMED_KEY) && ((Map) actualMap.get(NOT_NAMED_KEY))
-                                .containsKey(ERROR_TYPE)) {
-                            Assert.assertEquals("Error type is wrong", expectedMsg, ((Map) actualMap.get(
-                                    NOT_NAMED_KEY))
-                                    .get(ERROR_TYPE));
-                        } else {
-                            Map<String, Object> expectedMap = Converter.jsonToModel(expectedMsg, Map.class);
-                            CheckCommon.checkMapEquals(expectedMap, actualMap);
-                        }
-                    }
-                } catch (Exception e) {
-                    Assert.assertEquals("Msg contents are wrong", expectedMsg, actualMsg);
+            return;
+        }
+
+        PubSubCallback callback = topicDevices.get(topic).getCallback();
+        ResultVerifier verifier = new ResultVerifier(expectList);
+        long deadline = System.currentTimeMillis() + PubSubCallback.WAIT_TIME_OUT;
+        while (!verifier.isComplete() && System.currentTimeMillis() < deadline) {
+            List<String> arrived = callback.waitAndDrainReceiveListMap(topic, deadline - System.currentTimeMillis());
+            for (String actualMsg : arrived) {
+                verifier.offer(actualMsg);
+            }
+            if (!arrived.isEmpty()) {
+                deadline = System.currentTimeMillis() + PubSubCallback.WAIT_TIME_OUT;
+            }
+        }
+        for (String actualMsg : callback.getReceiveListMap(topic)) {
+            verifier.offer(actualMsg);
+        }
+
+        List<String> missing = verifier.getMissing();
+        List<String> unexpected = verifier.getUnexpected();
+        log.info("Checked {} msgs of topic {}: matched {} ({} by scan), missing {}, unexpected {}",
+                expectList.size(), topic, verifier.getMatched(), verifier.getScanned(), missing.size(),
+                unexpected.size());
+        if (!missing.isEmpty() && !unexpected.isEmpty()) {
+            // Fails with the reason of the mismatch
+            checkMessage(missing.get(0), unexpected.get(0));
+        }
+        Assert.assertTrue(String.format("Received msgs are wrong, expected %s, missing %s, unexpected %s",
+                expectList.size(), missing, unexpected), missing.isEmpty() && unexpected.isEmpty());
+    }
+
+    /**
+     * Check one result msg against the expected one, throws AssertionError if they don't match
+     */
+    public static void checkMessage(String expectedMsg, String actualMsg) throws Exception {
+        // Check whether it is in json format
+        try {
+            Map<String, Object> actualMap = Converter.jsonToModel(actualMsg, Map.class);
+
+            if (actualMap.containsKey("result")) {
+                log.info("Getting result model from nest msgs"); // TODO ugly implement
+                actualMap = (Map<String, Object>) actualMap.get("result");
+                actualMsg = Converter.modelToJsonUsingJsonNode(actualMap);
+                Map<String, Object> temp = Converter.jsonToModel(expectedMsg, Map.class);
+                temp = (Map<String, Object>) temp.get("result");
+                expectedMsg = Converter.modelToJsonUsingJsonNode(temp);
+            }
+
+            // Check whether it is in function result
+            try {
+                EdgeDeviceFunctionResultMsg expectedFucntionResult = Converter.jsonToModel(expectedMsg,
+                        EdgeDeviceFunctionResultMsg.class);
+                EdgeDeviceFunctionResultMsg actualFucntionResult = Converter.jsonToModel(actualMsg,
+                        EdgeDeviceFunctionResultMsg.class);
+                checkFunctionResult(expectedFucntionResult, actualFucntionResult);
+            } catch (Exception e) {
+                // May be error msg
+                if (actualMap.containsKey(ERROR_TYPE)) {
+                    Assert.assertEquals("Error type is wrong", expectedMsg, actualMap.get(ERROR_TYPE));
+                } else if (actualMap.containsKey(NOT_NAMED_KEY) && ((Map) actualMap.get(NOT_NAMED_KEY))
+                        .containsKey(ERROR_TYPE)) {
+                    Assert.assertEquals("Error type is wrong", expectedMsg, ((Map) actualMap.get(
+                            NOT_NAMED_KEY))
+                            .get(ERROR_TYPE));
+                } else {
+                    Map<String, Object> expectedMap = Converter.jsonToModel(expectedMsg, Map.class);
+                    CheckCommon.checkMapEquals(expectedMap, actualMap);
                 }
             }
+        } catch (Exception e) {
+            Assert.assertEquals("Msg contents are wrong", expectedMsg, actualMsg);
         }
     }
 
     public void stopChecker() throws Exception {
         for (String topic : topicDevices.keySet()) {
             MqttConnection device = topicDevices.get(topic);
-            if (device.getClient().isConnected()) {
+            if (device != sharedConnection && device.getClient().isConnected()) {
                 PubSubCommon.unsubscribe(device, topic);
                 device.disconnect();
             }
         }
+        if (sharedConnection != null && sharedConnection.getClient().isConnected()) {
+            PubSubCommon.unsubscribe(sharedConnection, sharedTopics.toArray(new String[sharedTopics.size()]));
+            sharedConnection.disconnect();
+        }
+        sharedTopics.clear();
     }
 
     public void clean() throws Exception {
         stopChecker();
         topicDevices.clear();
+        sharedConnection = null;
+    }
+
+    private MqttConnection createConnection() throws Exception {
+        String username = sampleConnection.getConnOpts().getUserName();
+        String password = new String(sampleConnection.getConnOpts().getPassword());
+        MqttConnectOptions conOptions = PubSubCommon.getDefaultConnectOptions(username, password);
+        String url = sampleConnection.getClient().getServerURI();
+        String clientId = "mqttCheck" + UUID.randomUUID().toString();
+        MqttConnection connection = PubSubCommon.createMqttConnection(url, clientId, sampleConnection.isTls(),
+                sampleConnection.getCertPath(), conOptions);
+        connection.setCallBack(new PubSubCallback());
+        return connection;
     }
 
     public static void checkFunctionResult(EdgeDeviceFunctionResultMsg expectedResult,
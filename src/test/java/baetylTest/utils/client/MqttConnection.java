@@ -1,37 +1,40 @@
 package baetylTest.utils.client;
 
+import baetylTest.utils.TopicNamespace;
+import baetylTest.utils.perf.LatencyStats;
+import baetylTest.utils.perf.LatencyType;
 import sun.misc.BASE64Decoder;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.security.KeyFactory;
-import java.security.KeyStore;
 import java.security.PrivateKey;
-import java.security.Security;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509Certificate;
 import java.security.spec.PKCS8EncodedKeySpec;
-import javax.net.SocketFactory;
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.KeyManagerFactory;
-import javax.net.ssl.SSLContext;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.openssl.PEMReader;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.MqttPingSender;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 /**
@@ -51,18 +54,24 @@ public class MqttConnection {
     private boolean authCert = false;
     private String clientCertPath;
     private String clientKeyPath;
-
-    public static long minLatency = 0;
-    public static long maxLatency = 0;
-    public static double meanLatency = 0;
+    private TopicNamespace namespace = TopicNamespace.current();
+    // Namespaced topic to qos of what this client subscribed, restored by a Reconnector
+    private final Map<String, Integer> subscriptions = new ConcurrentHashMap<String, Integer>();
+    // Run once on the first disconnect, gives the slot of a SharedClientFactory back
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final AtomicReference<Runnable> releaseListener = new AtomicReference<Runnable>();
+    // Socket factory of a context of this connection only, set by useOwnTlsContext
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private SSLSocketFactory ownSocketFactory;
 
     public static final int CON_TIME_OUT = 10000;
     public static final int DISCON_TIME_OUT = 30000;
     public static final int KEEP_ALIVE_TIME = 60;
     public static final int ACTION_TIME_OUT = 30000;
 
-    public static long maxConnection = 0;
-    public static long connectionCount = 0;
+    public static AtomicLong connectionCount = new AtomicLong();
     public static long connectLost = 0;
 
     public MqttConnection(String broker, String clientId, boolean tls, String certPath, MemoryPersistence persistence,
@@ -72,7 +81,24 @@ public class MqttConnection {
         this.certPath = certPath;
         this.connOpts = connOpts;
         try {
-            this.client = new MqttAsyncClient(broker, clientId, persistence);
+            this.client = new MqttAsyncClient(broker, namespace.clientId(clientId), persistence);
+        } catch (MqttException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Connection whose comms run on executor and pings on pingSender, see {@link SharedClientFactory}
+     */
+    public MqttConnection(String broker, String clientId, boolean tls, String certPath, MemoryPersistence persistence,
+                          MqttConnectOptions connOpts, MqttPingSender pingSender, ScheduledExecutorService executor) {
+        super();
+        this.tls = tls;
+        this.certPath = certPath;
+        this.connOpts = connOpts;
+        try {
+            this.client = new MqttAsyncClient(broker, namespace.clientId(clientId), persistence, pingSender,
+                    executor);
         } catch (MqttException e) {
             e.printStackTrace();
         }
@@ -88,7 +114,7 @@ public class MqttConnection {
         this.clientCertPath = clientCertPath;
         this.clientKeyPath = clientKeyPath;
         try {
-            this.client = new MqttAsyncClient(broker, clientId, persistence);
+            this.client = new MqttAsyncClient(broker, namespace.clientId(clientId), persistence);
         } catch (MqttException e) {
             e.printStackTrace();
         }
@@ -96,38 +122,16 @@ public class MqttConnection {
 
     public boolean connect() throws Exception {
         boolean isConnect = false;
-        if (connOpts == null) {
-            connOpts = getDefaultConnectOptions();
-        }
-
-        if (authCert) {
-            if (tls) {
-                connOpts.setSocketFactory(getSSLTLSSocketFactory(certPath, clientCertPath,
-                        clientKeyPath));
-            } else {
-                connOpts.setSocketFactory(getSSLSocketFactory(clientCertPath, clientKeyPath));
-            }
-        } else {
-            if (tls) {
-                connOpts.setSocketFactory(getTLSSocketFactory(certPath));
-            } else {
-                connOpts.setSocketFactory(null);
-            }
-        }
+        prepareConnectOptions();
 
-        long startTime = System.currentTimeMillis();
+        long startTime = System.nanoTime();
         try {
             log.info("Connecting.. clientId {}, broker {}, wait timeout {}", client.getClientId(), client
                     .getServerURI(), connOpts.getConnectionTimeout() * 1000);
             client.connect(connOpts).waitForCompletion(connOpts.getConnectionTimeout() * 1000);
-            long endTime = System.currentTimeMillis();
-
-            synchronized (MqttConnection.class) {
-                maxConnection++;
-                connectionCount++;
-                updateLantency(endTime - startTime);
-                isConnect = true;
-            }
+            LatencyStats.recordNanos(LatencyType.CONNECT, System.nanoTime() - startTime);
+            connectionCount.incrementAndGet();
+            isConnect = true;
         } catch (Exception e) {
             e.printStackTrace();
             disconnect();
@@ -137,83 +141,99 @@ public class MqttConnection {
         return isConnect;
     }
 
-    public void setCallBack(PubSubCallback callback) {
-        this.callback = callback;
-        client.setCallback(callback);
-    }
-
-    private SSLSocketFactory getSSLTLSSocketFactory(String certPath, String clientCertPath, String clientKeyPath)
-            throws Exception {
-        TrustManager[] trustManagers = getTrustManager(certPath);
+    /**
+     * Start connecting without waiting, listener is called on a paho thread with the outcome. The connect
+     * latency is recorded before the listener is called.
+     */
+    public IMqttToken connectAsync(final IMqttActionListener listener) throws Exception {
+        prepareConnectOptions();
+        final long startTime = System.nanoTime();
+        return client.connect(connOpts, null, new IMqttActionListener() {
+            @Override
+            public void onSuccess(IMqttToken asyncActionToken) {
+                LatencyStats.recordNanos(LatencyType.CONNECT, System.nanoTime() - startTime);
+                connectionCount.incrementAndGet();
+                listener.onSuccess(asyncActionToken);
+            }
 
-        KeyManager[] km = getKeyManager(clientCertPath, clientKeyPath);
-        SSLContext context = SSLContext.getInstance("TLS");
-        context.init(km, trustManagers, null);
-        return context.getSocketFactory();
+            @Override
+            public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                log.debug("Connect {} failed : {}", client.getClientId(), exception.getMessage());
+                listener.onFailure(asyncActionToken, exception);
+            }
+        });
     }
 
-    private SSLSocketFactory getSSLSocketFactory(String clientCertPath, String clientKeyPath)
-            throws Exception {
-        KeyManager[] km = getKeyManager(clientCertPath, clientKeyPath);
-        SSLContext context = SSLContext.getInstance("SSL");
-        context.init(km, null, null);
-        return context.getSocketFactory();
+    public void addSubscriptions(String[] topics, int[] qosList) {
+        for (int i = 0; i < topics.length; i++) {
+            subscriptions.put(topics[i], qosList[i]);
+        }
     }
 
+    public void removeSubscription(String topic) {
+        subscriptions.remove(topic);
+    }
 
-    private SocketFactory getTLSSocketFactory(String certPath) throws Exception {
-        TrustManager[] trustManagers = getTrustManager(certPath);
-        SSLContext context = SSLContext.getInstance("TLS");
-        context.init(null, trustManagers, null);
-        return context.getSocketFactory();
+    public void setCallBack(PubSubCallback callback) {
+        this.callback = callback;
+        callback.setNamespace(namespace);
+        client.setCallback(callback);
     }
 
-    private TrustManager[] getTrustManager(String certPath)
-            throws Exception {
-        File file = new File(certPath);
-        InputStream certInputStream = new FileInputStream(file);
-        CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
-        Certificate cert = certFactory.generateCertificate(certInputStream);
-        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-        keyStore.load(null);
-        keyStore.setCertificateEntry("ca", cert);
-        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance("X509");
-        trustManagerFactory.init(keyStore);
-        TrustManager[] trustManagers = trustManagerFactory.getTrustManagers();
-        return trustManagers;
+    public boolean disconnect() {
+        try {
+            return disconnectClient();
+        } finally {
+            Runnable listener = releaseListener.getAndSet(null);
+            if (listener != null) {
+                listener.run();
+            }
+        }
     }
 
-    private KeyManager[] getKeyManager(String clientCertPath, String clientKeyPath)
-            throws Exception {
-        Security.addProvider(new BouncyCastleProvider());
-        byte[] certBytes = fileToBytes(clientCertPath);
-        PEMReader reader = new PEMReader(new InputStreamReader(new ByteArrayInputStream(certBytes)));
-        X509Certificate x509Certificate = (X509Certificate) reader.readObject();
-        PrivateKey privateKey = getPrivateKey(clientKeyPath, "RSA");
-        KeyStore keyStore1 = KeyStore.getInstance("JCEKS");
-        keyStore1.load(null);
-        keyStore1.setCertificateEntry("cert-alias", x509Certificate);
-        keyStore1.setKeyEntry("key-alias", privateKey, "changeit".toCharArray(), new Certificate[]{x509Certificate});
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
-        kmf.init(keyStore1, "changeit".toCharArray());
-        KeyManager[] km = kmf.getKeyManagers();
-        return km;
+    /**
+     * Connect with an ssl context of this connection only instead of the shared one of SslContextCache, so no
+     * tls session of another connection can be resumed and every connect does a full handshake
+     *
+     * @return  false for a connection without tls, nothing changes then
+     */
+    public boolean useOwnTlsContext() throws Exception {
+        if (!tls && !authCert) {
+            return false;
+        }
+        ownSocketFactory = SslContextCache.newContext(tls ? SslContextCache.TLS : SslContextCache.SSL,
+                tls ? certPath : null, authCert ? clientCertPath : null, authCert ? clientKeyPath : null)
+                .getSocketFactory();
+        return true;
     }
 
+    void setReleaseListener(Runnable listener) {
+        releaseListener.set(listener);
+    }
 
-    public boolean disconnect() {
+    private boolean disconnectClient() {
         if (client != null && client.isConnected()) {
             try {
-                // Wait until isConnected=false, because paho marks complete as soon as disconnect is sent
-                long startTime = System.currentTimeMillis();
+                // Paho marks the token complete as soon as disconnect is sent, but only calls the listener once
+                // the client is really disconnected, so wait for the listener
+                final CountDownLatch disconnected = new CountDownLatch(1);
+                long startTime = System.nanoTime();
                 log.info("Disconnecting client {}", client.getClientId());
-                client.disconnect().waitForCompletion(DISCON_TIME_OUT);
-                while (client.isConnected() && System.currentTimeMillis() - startTime <= DISCON_TIME_OUT) {
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                client.disconnect(null, new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken asyncActionToken) {
+                        disconnected.countDown();
                     }
+
+                    @Override
+                    public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                        disconnected.countDown();
+                    }
+                });
+                try {
+                    disconnected.await(DISCON_TIME_OUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
 
                 if (client.isConnected()) {
@@ -221,6 +241,7 @@ public class MqttConnection {
                     return false;
                 }
 
+                LatencyStats.recordNanos(LatencyType.DISCONNECT, System.nanoTime() - startTime);
                 return true;
             } catch (MqttException e) {
                 e.printStackTrace();
@@ -230,6 +251,37 @@ public class MqttConnection {
         return true;
     }
 
+    private void prepareConnectOptions() throws Exception {
+        if (connOpts == null) {
+            connOpts = getDefaultConnectOptions();
+        }
+        if (connOpts.getWillDestination() != null) {
+            // Subscribers of the will are namespaced, topic() leaves an already namespaced will as it is
+            MqttMessage will = connOpts.getWillMessage();
+            connOpts.setWill(namespace.topic(connOpts.getWillDestination()), will.getPayload(), will.getQos(),
+                    will.isRetained());
+        }
+
+        if (ownSocketFactory != null) {
+            connOpts.setSocketFactory(ownSocketFactory);
+        } else if (authCert) {
+            if (tls) {
+                connOpts.setSocketFactory(SslContextCache.getSocketFactory(SslContextCache.TLS, certPath,
+                        clientCertPath, clientKeyPath));
+            } else {
+                connOpts.setSocketFactory(SslContextCache.getSocketFactory(SslContextCache.SSL, null,
+                        clientCertPath, clientKeyPath));
+            }
+        } else {
+            if (tls) {
+                connOpts.setSocketFactory(SslContextCache.getSocketFactory(SslContextCache.TLS, certPath, null,
+                        null));
+            } else {
+                connOpts.setSocketFactory(null);
+            }
+        }
+    }
+
     private MqttConnectOptions getDefaultConnectOptions() {
         MqttConnectOptions conOpts = new MqttConnectOptions();
         conOpts.setCleanSession(true);
@@ -241,21 +293,6 @@ public class MqttConnection {
         return conOpts;
     }
 
-    public static void updateLantency(long latency) {
-        if (connectionCount > 0) {
-            meanLatency = (double) (meanLatency * (maxConnection - 1) + latency) / (double) maxConnection;
-            if (latency < minLatency) {
-                minLatency = latency;
-            }
-
-            if (latency > maxLatency) {
-                maxLatency = latency;
-            }
-        } else {
-            log.warn("Connection count is <= 0");
-        }
-    }
-
     public static PrivateKey getPrivateKey(String filename, String algorithm) throws Exception {
         File f = new File(filename);
         FileInputStream fis = new FileInputStream(f);
@@ -274,10 +311,6 @@ public class MqttConnection {
     }
 
     public static byte[] fileToBytes(String path) throws IOException {
-        File file = new File(path);
-        InputStream input = new FileInputStream(file);
-        byte[] bytes = new byte[input.available()];
-        input.read(bytes);
-        return bytes;
+        return Files.readAllBytes(Paths.get(path));
     }
 }
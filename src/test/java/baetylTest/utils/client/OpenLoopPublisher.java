@@ -0,0 +1,75 @@
+package baetylTest.utils.client;
+
+import baetylTest.utils.perf.ArrivalSchedule;
+import baetylTest.utils.perf.PayloadEnvelope;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Publisher sending msgs at the intended times of an {@link ArrivalSchedule}, whatever pace the hub keeps.
+ *
+ * A closed-loop sender waits for each ack, so it stops sending exactly while the hub stalls and the stall
+ * never shows up in its percentiles. Here the send times are fixed by the schedule up front, and both ack
+ * latency and the envelope timestamp are taken from them, so a msg held back by a full window or a slow hub
+ * is charged the time it waited. The {@link PipelinedPublisher} window only bounds client memory.
+ */
+@Slf4j
+public class OpenLoopPublisher {
+
+    private static final String CHARSET = "utf-8";
+
+    private final PipelinedPublisher publisher;
+    private final ArrivalSchedule schedule;
+    private long maxLagNanos;
+
+    public OpenLoopPublisher(MqttConnection connection, int window, ArrivalSchedule schedule) {
+        this.publisher = new PipelinedPublisher(connection, window);
+        this.schedule = schedule;
+    }
+
+    /**
+     * Publish msgs in order on the schedule, falling behind it only while the window is full
+     *
+     * @return  batch handle, await it for the acks
+     */
+    public PublishBatch publish(String topic, int qos, List<String> messages, boolean retained) throws Exception {
+        PublishBatch batch = new PublishBatch(messages.size());
+        long intended = System.nanoTime();
+        for (String message : messages) {
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            maxLagNanos = Math.max(maxLagNanos, -wait);
+
+            byte[] body = message.getBytes(CHARSET);
+            byte[] payload = PayloadEnvelope.isEnabled() ? PayloadEnvelope.wrap(body, intended) : body;
+            publisher.publish(topic, qos, payload, retained, batch, intended);
+            intended += schedule.nextIntervalNanos();
+        }
+        if (maxLagNanos > schedule.getMeanIntervalNanos()) {
+            log.info("Open-loop {} fell behind schedule by up to {} ms", schedule,
+                    TimeUnit.NANOSECONDS.toMillis(maxLagNanos));
+        }
+        return batch;
+    }
+
+    /**
+     * @return  longest time a send started after its intended time
+     */
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+
+    public ArrivalSchedule getSchedule() {
+        return schedule;
+    }
+
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        return publisher.drain(timeoutMillis);
+    }
+}
@@ -0,0 +1,163 @@
+package baetylTest.utils.client;
+
+import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.perf.LatencyStats;
+import baetylTest.utils.perf.LatencyType;
+import baetylTest.utils.perf.PayloadSource;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+/**
+ * Publisher keeping up to window PUBLISH packets in flight on one connection.
+ *
+ * Unlike PubSubCommon.publish, it doesn't wait for each ack before sending the next msg, acks complete
+ * the returned {@link PublishBatch} from paho's callback thread. The connection should be connected with
+ * MqttConnectOptions.setMaxInflight(window) or more, otherwise the window is cut to maxInflight.
+ *
+ * Qos0 msgs are sent one at a time: paho 1.2.0 keys pending tokens by msg id, which is 0 for every qos0 msg,
+ * so overlapping qos0 sends overwrite each other's tokens and msgs get lost.
+ */
+@Slf4j
+public class PipelinedPublisher {
+
+    private static final String CHARSET = "utf-8";
+
+    private final MqttConnection connection;
+    private final int window;
+    private final Semaphore permits;
+
+    public PipelinedPublisher(MqttConnection connection, int window) {
+        this.connection = connection;
+        int maxInflight = connection.getConnOpts() == null ? window : connection.getConnOpts().getMaxInflight();
+        if (window > maxInflight) {
+            log.warn("Window {} is larger than max inflight {} of client, using {}", window, maxInflight,
+                    maxInflight);
+            window = maxInflight;
+        }
+        this.window = window;
+        this.permits = new Semaphore(window);
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Publish msgs in order, blocking only while the window is full
+     *
+     * @return  batch handle, await it for the acks
+     */
+    public PublishBatch publish(String topic, int qos, List<String> messages, boolean retained) throws Exception {
+        PublishBatch batch = new PublishBatch(messages.size());
+        for (String message : messages) {
+            publish(topic, qos, PubSubCommon.toPayload(message, CHARSET), retained, batch);
+        }
+        return batch;
+    }
+
+    /**
+     * Publish count msgs taken from source, blocking only while the window is full. The pool of source should
+     * be larger than the window.
+     *
+     * @return  batch handle, await it for the acks
+     */
+    public PublishBatch publish(String topic, int qos, PayloadSource source, int count, boolean retained)
+            throws Exception {
+        PublishBatch batch = new PublishBatch(count);
+        for (int i = 0; i < count; i++) {
+            publish(topic, qos, source.next(), retained, batch);
+        }
+        return batch;
+    }
+
+    /**
+     * Publish one msg as part of batch, blocking while the window is full. Latency is measured from the
+     * actual send.
+     *
+     * @return  false if paho refused the msg, it's counted as failed in batch then
+     */
+    public boolean publish(String topic, int qos, byte[] payload, boolean retained, PublishBatch batch)
+            throws Exception {
+        return send(topic, qos, payload, retained, batch, false, 0);
+    }
+
+    /**
+     * Publish one msg as part of batch, blocking while the window is full
+     *
+     * @param intendedNanos  System.nanoTime() the msg was scheduled for, latency is measured from it so time
+     *                       spent waiting for the window counts
+     * @return  false if paho refused the msg, it's counted as failed in batch then
+     */
+    public boolean publish(String topic, int qos, byte[] payload, boolean retained, PublishBatch batch,
+                           long intendedNanos) throws Exception {
+        return send(topic, qos, payload, retained, batch, true, intendedNanos);
+    }
+
+    /**
+     * @param scheduled  whether intendedNanos is set, any long is a valid System.nanoTime()
+     */
+    private boolean send(String topic, int qos, byte[] payload, boolean retained, final PublishBatch batch,
+                         boolean scheduled, long intendedNanos) throws Exception {
+        final int publishQos = qos;
+        MqttAsyncClient client = connection.getClient();
+        permits.acquire();
+        final long sendTime = System.nanoTime();
+        final long startTime = scheduled ? intendedNanos : sendTime;
+        IMqttToken token;
+        try {
+            token = client.publish(connection.getNamespace().topic(topic), payload, qos, retained, null,
+                    new IMqttActionListener() {
+
+                        @Override
+                        public void onSuccess(IMqttToken token) {
+                            permits.release();
+                            long ackedTime = System.nanoTime();
+                            long latency = ackedTime - startTime;
+                            if (publishQos > 0) {
+                                LatencyStats.recordNanos(LatencyType.PUBLISH_ACK, latency);
+                            }
+                            batch.onAcked(latency, ackedTime - sendTime);
+                        }
+
+                        @Override
+                        public void onFailure(IMqttToken token, Throwable cause) {
+                            permits.release();
+                            batch.onFailed(cause);
+                        }
+                    });
+        } catch (Exception e) {
+            permits.release();
+            batch.onFailed(e);
+            return false;
+        }
+        if (qos == 0) {
+            try {
+                token.waitForCompletion();
+            } catch (MqttException e) {
+                // Already counted by onFailure
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait until no msg is in flight any more
+     *
+     * @return  false if timed out
+     */
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        if (permits.tryAcquire(window, timeoutMillis, TimeUnit.MILLISECONDS)) {
+            permits.release(window);
+            return true;
+        }
+        return false;
+    }
+}
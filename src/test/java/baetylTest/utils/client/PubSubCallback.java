@@ -1,47 +1,120 @@
 package baetylTest.utils.client;
 
+import baetylTest.utils.TopicNamespace;
+import baetylTest.utils.perf.LatencyRecorder;
+import baetylTest.utils.perf.LatencyStats;
+import baetylTest.utils.perf.LatencyType;
+import baetylTest.utils.perf.PayloadEnvelope;
+
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 
+/**
+ * Paho callback keeping received msgs for checking.
+ *
+ * Msgs are kept in lock-free queues, getters drain them element by element so a msg arriving
+ * while a getter runs is either returned or kept for the next call, never lost.
+ */
 @Slf4j
 public class PubSubCallback implements MqttCallback {
-    private List<String> receiveList = new ArrayList<String>();
-    private List<MqttMessage> rawMqttMsgReceiveList = new ArrayList<MqttMessage>();
-    private Map<String, String> lastMsgMap = new HashMap<String, String>();
-    private Map<String, List<String>> receiveListMap = new HashMap<String, List<String>>();
-    private long lastReceiveMessageTime = 0;
-    private List<Long> lastReceiveMessageTimeList = new ArrayList<Long>();
+    private ReceiveQueue<String> receiveList = new ReceiveQueue<String>();
+    private ReceiveQueue<MqttMessage> rawMqttMsgReceiveList = new ReceiveQueue<MqttMessage>();
+    private ConcurrentMap<String, String> lastMsgMap = new ConcurrentHashMap<String, String>();
+    private ConcurrentMap<String, ReceiveQueue<String>> receiveListMap =
+            new ConcurrentHashMap<String, ReceiveQueue<String>>();
+    private volatile long lastReceiveMessageTime = 0;
+    private ReceiveQueue<Long> lastReceiveMessageTimeList = new ReceiveQueue<Long>();
+    private ConcurrentMap<String, LatencyRecorder> topicLatencyMap = new ConcurrentHashMap<String, LatencyRecorder>();
+    private ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+    private final boolean logReceived;
+    private volatile TopicNamespace namespace = TopicNamespace.NONE;
     private static final String CHARSET = "utf-8";
     public static final long WAIT_TIME_OUT = 10 * 1000;
     public AtomicInteger conLostCount = new AtomicInteger();
 
+    public PubSubCallback() {
+        this(true);
+    }
+
+    /**
+     * @param logReceived  whether to log every received msg, turn it off for high rate subscribers
+     */
+    public PubSubCallback(boolean logReceived) {
+        this.logReceived = logReceived;
+    }
+
     @Override
-    public void messageArrived(String topic, MqttMessage message) throws Exception {
-        synchronized (this) {
-            rawMqttMsgReceiveList.add(message);
-            lastReceiveMessageTime = System.currentTimeMillis();
-            lastReceiveMessageTimeList.add(lastReceiveMessageTime);
-            String payload = new String(message.getPayload(), CHARSET);
+    public void messageArrived(String receivedTopic, MqttMessage message) throws Exception {
+        String topic = namespace.strip(receivedTopic);
+        String payload = decodePayload(topic, message.getPayload());
+        if (logReceived) {
             log.info("Received msg {} from topic {}", payload, topic);
-            receiveList.add(payload);
-            lastMsgMap.put(topic, payload);
-            if (receiveListMap.containsKey(topic)) {
-                receiveListMap.get(topic).add(payload);
-            } else {
-                receiveListMap.put(topic, new ArrayList<String>(Collections.singletonList(payload)));
+        }
+        rawMqttMsgReceiveList.offer(message);
+        lastReceiveMessageTime = System.currentTimeMillis();
+        lastReceiveMessageTimeList.offer(lastReceiveMessageTime);
+        lastMsgMap.put(topic, payload);
+        queueOf(topic).offer(payload);
+        // Counted last, so a waiter seeing the count can drain everything else of this msg
+        receiveList.offer(payload);
+
+        // Wake up waiters, they check their own expected count
+        if (!waiters.isEmpty()) {
+            for (Thread waiter : waiters) {
+                LockSupport.unpark(waiter);
             }
         }
     }
 
+    /**
+     * Strip the latency envelope if any and record its end to end latency for the topic
+     */
+    private String decodePayload(String topic, byte[] rawPayload) throws Exception {
+        if (!PayloadEnvelope.isEnveloped(rawPayload)) {
+            return new String(rawPayload, CHARSET);
+        }
+        long latency = System.nanoTime() - PayloadEnvelope.getSendNanos(rawPayload);
+        LatencyRecorder recorder = topicLatencyMap.get(topic);
+        if (recorder == null) {
+            LatencyRecorder newRecorder = new LatencyRecorder();
+            recorder = topicLatencyMap.putIfAbsent(topic, newRecorder);
+            recorder = recorder == null ? newRecorder : recorder;
+        }
+        recorder.recordNanos(latency);
+        LatencyStats.recordNanos(LatencyType.END_TO_END, latency);
+        return PayloadEnvelope.getBody(rawPayload, CHARSET);
+    }
+
+    /**
+     * Namespace of the connection, topics are reported without its prefix
+     */
+    public void setNamespace(TopicNamespace namespace) {
+        this.namespace = namespace;
+    }
+
+    private ReceiveQueue<String> queueOf(String topic) {
+        ReceiveQueue<String> queue = receiveListMap.get(topic);
+        if (queue == null) {
+            ReceiveQueue<String> newQueue = new ReceiveQueue<String>();
+            queue = receiveListMap.putIfAbsent(topic, newQueue);
+            queue = queue == null ? newQueue : queue;
+        }
+        return queue;
+    }
+
     @Override
     public void deliveryComplete(IMqttDeliveryToken token) {
     }
@@ -53,62 +126,54 @@ public class PubSubCallback implements MqttCallback {
     }
 
     public List<String> getReceiveList() {
-        List<String> result = new ArrayList<String>();
-        result.addAll(receiveList);
-
-        synchronized (this) {
-            receiveList.clear();
-        }
-        return result;
+        return receiveList.drain();
     }
 
     public List<MqttMessage> getRawMqttMsgReceiveList() {
-        List<MqttMessage> result = new ArrayList<MqttMessage>();
-        result.addAll(rawMqttMsgReceiveList);
-
-        synchronized (this) {
-            rawMqttMsgReceiveList.clear();
-        }
-        return result;
+        return rawMqttMsgReceiveList.drain();
     }
 
     public Map<String, String> getLastMsgMap() {
         Map<String, String> result = new HashMap<String, String>();
-        result.putAll(lastMsgMap);
-        synchronized (this) {
-            lastMsgMap.clear();
+        for (String topic : lastMsgMap.keySet()) {
+            String msg = lastMsgMap.remove(topic);
+            if (msg != null) {
+                result.put(topic, msg);
+            }
         }
         return result;
     }
 
     public List<String> getReceiveListMap(String topic) {
-        List<String> result = new ArrayList<String>();
-        if (receiveListMap.containsKey(topic)) {
-            result.addAll(receiveListMap.get(topic));
-            synchronized (this) {
-                receiveListMap.get(topic).clear();
-            }
-        }
-        return result;
+        ReceiveQueue<String> queue = receiveListMap.get(topic);
+        return queue == null ? new ArrayList<String>() : queue.drain();
     }
 
     public Map<String, List<String>> getReceiveListMap() {
         Map<String, List<String>> result = new HashMap<String, List<String>>();
-        result.putAll(receiveListMap);
-        synchronized (this) {
-            receiveListMap.clear();
+        for (Map.Entry<String, ReceiveQueue<String>> entry : receiveListMap.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().drain());
         }
         return result;
     }
 
     public List<Long> getLastReceiveTimeList() {
-        List<Long> result = new ArrayList<Long>();
-        result.addAll(lastReceiveMessageTimeList);
+        return lastReceiveMessageTimeList.drain();
+    }
 
-        synchronized (this) {
-            lastReceiveMessageTimeList.clear();
-        }
-        return result;
+    public long getLastReceiveMessageTime() {
+        return lastReceiveMessageTime;
+    }
+
+    /**
+     * @return  end to end latency of enveloped msgs received from topic, null if none
+     */
+    public LatencyRecorder getTopicLatency(String topic) {
+        return topicLatencyMap.get(topic);
+    }
+
+    public Map<String, LatencyRecorder> getTopicLatencyMap() {
+        return topicLatencyMap;
     }
 
     public List<String> waitAndGetReveiveList(long... timeout) throws Exception {
@@ -121,10 +186,9 @@ public class PubSubCallback implements MqttCallback {
             waitTimeOut = timeout[0] * 1000;
         }
 
-        long start = System.currentTimeMillis();
-        while (receiveList.size() < expectedCount && System.currentTimeMillis() - start < waitTimeOut) {
-            Thread.sleep(1000);
-            log.info("Waiting for msg...");
+        if (receiveList.size() < expectedCount) {
+            log.info("Waiting for {} msgs...", expectedCount);
+            awaitCount(receiveList, expectedCount, waitTimeOut);
         }
         return getReceiveList();
     }
@@ -136,21 +200,49 @@ public class PubSubCallback implements MqttCallback {
             waitTimeOut = timeout[0] * 1000;
         }
 
-        long start = System.currentTimeMillis();
-        while ((!receiveListMap.containsKey(topic) || receiveListMap.get(topic).size() < expectedCount) && System
-                .currentTimeMillis() - start < waitTimeOut) {
-            Thread.sleep(1000);
-            log.info("Waiting for msg for topic {} ...", topic);
+        ReceiveQueue<String> queue = queueOf(topic);
+        if (queue.size() < expectedCount) {
+            log.info("Waiting for {} msgs for topic {} ...", expectedCount, topic);
+            awaitCount(queue, expectedCount, waitTimeOut);
         }
         return getReceiveListMap(topic);
     }
 
-    public boolean checkContain(String topic) {
-        boolean contain = false;
-        if (!receiveListMap.isEmpty() && receiveListMap.containsKey(topic) && !receiveListMap.get(topic).isEmpty()) {
-            contain = true;
+    /**
+     * Wait until at least one msg of topic is there, then drain all of them
+     *
+     * @return  msgs of topic, empty if none came in timeoutMillis
+     */
+    public List<String> waitAndDrainReceiveListMap(String topic, long timeoutMillis) throws Exception {
+        ReceiveQueue<String> queue = queueOf(topic);
+        if (queue.size() < 1 && timeoutMillis > 0) {
+            awaitCount(queue, 1, timeoutMillis);
+        }
+        return getReceiveListMap(topic);
+    }
+
+    private void awaitCount(ReceiveQueue<?> queue, int expectedCount, long timeoutMillis) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Thread current = Thread.currentThread();
+        waiters.add(current);
+        try {
+            long remaining = deadline - System.nanoTime();
+            // Unpark before park just makes park return at once, so no arrival is missed
+            while (queue.size() < expectedCount && remaining > 0) {
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                remaining = deadline - System.nanoTime();
+            }
+        } finally {
+            waiters.remove(current);
         }
-        return contain;
+    }
+
+    public boolean checkContain(String topic) {
+        ReceiveQueue<String> queue = receiveListMap.get(topic);
+        return queue != null && queue.size() > 0;
     }
 
     public void clear() {
@@ -159,4 +251,31 @@ public class PubSubCallback implements MqttCallback {
         getLastMsgMap();
         getLastReceiveTimeList();
     }
+
+    /**
+     * Multi producer queue with a separate counter, as ConcurrentLinkedQueue.size() is O(n)
+     */
+    private static class ReceiveQueue<T> {
+        private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<T>();
+        private final AtomicInteger count = new AtomicInteger();
+
+        void offer(T item) {
+            queue.offer(item);
+            count.incrementAndGet();
+        }
+
+        int size() {
+            return count.get();
+        }
+
+        List<T> drain() {
+            List<T> result = new ArrayList<T>(Math.max(count.get(), 0));
+            T item;
+            while ((item = queue.poll()) != null) {
+                count.decrementAndGet();
+                result.add(item);
+            }
+            return result;
+        }
+    }
 }
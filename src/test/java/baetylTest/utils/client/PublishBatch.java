@@ -0,0 +1,83 @@
+package baetylTest.utils.client;
+
+import baetylTest.utils.perf.LatencyRecorder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handle of msgs published through {@link PipelinedPublisher}, completed by delivery token callbacks
+ */
+public class PublishBatch {
+
+    private final int expected;
+    private final CountDownLatch done;
+    private final AtomicInteger acked = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final LatencyRecorder ackLatency = new LatencyRecorder();
+    private final LatencyRecorder serviceTime = new LatencyRecorder();
+    private volatile Throwable lastFailure;
+
+    public PublishBatch(int expected) {
+        this.expected = expected;
+        this.done = new CountDownLatch(expected);
+    }
+
+    void onAcked(long latencyNanos, long serviceNanos) {
+        ackLatency.recordNanos(latencyNanos);
+        serviceTime.recordNanos(serviceNanos);
+        acked.incrementAndGet();
+        done.countDown();
+    }
+
+    void onFailed(Throwable cause) {
+        lastFailure = cause;
+        failed.incrementAndGet();
+        done.countDown();
+    }
+
+    /**
+     * Wait until every msg of the batch is acked or failed
+     *
+     * @return  false if timed out
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public int getExpected() {
+        return expected;
+    }
+
+    public int getAcked() {
+        return acked.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public Throwable getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * @return  publish to ack latency of this batch, for qos 0 it's the time until written to the socket.
+     *          Open-loop batches measure it from the intended send time, see {@link OpenLoopPublisher}.
+     */
+    public LatencyRecorder getAckLatency() {
+        return ackLatency;
+    }
+
+    /**
+     * @return  actual send to ack time, equal to ack latency unless msgs were sent behind schedule
+     */
+    public LatencyRecorder getServiceTime() {
+        return serviceTime;
+    }
+}
@@ -0,0 +1,32 @@
+package baetylTest.utils.client;
+
+import java.util.Random;
+
+import lombok.Data;
+
+/**
+ * Exponential backoff with jitter between reconnect attempts, see {@link Reconnector}
+ */
+@Data
+public class ReconnectPolicy {
+
+    private long initialDelayMillis = 100;
+    private long maxDelayMillis = 30 * 1000;
+    private double multiplier = 2;
+    // Fraction of the delay drawn at random, 0 retries in lockstep and 1 is full jitter
+    private double jitter = 0.5;
+    // Attempts before giving up, 0 never gives up
+    private int maxAttempts = 0;
+
+    /**
+     * Delay before attempt, the first attempt is 0
+     */
+    public long delayMillis(int attempt, Random random) {
+        double delay = Math.min(maxDelayMillis, initialDelayMillis * Math.pow(multiplier, attempt));
+        return (long) (delay * (1 - jitter * random.nextDouble()));
+    }
+
+    public boolean isExhausted(int attempts) {
+        return maxAttempts > 0 && attempts >= maxAttempts;
+    }
+}
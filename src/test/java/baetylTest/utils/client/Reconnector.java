@@ -0,0 +1,253 @@
+package baetylTest.utils.client;
+
+import baetylTest.utils.perf.LatencyRecorder;
+import baetylTest.utils.perf.LatencyStats;
+import baetylTest.utils.perf.LatencyType;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * Reconnects a lost {@link MqttConnection} with exponential backoff and jitter, then restores its subscriptions.
+ *
+ * Installed as the paho callback in front of the real one. Attempts run on one shared scheduler thread and
+ * connect asynchronously, so thousands of clients can back off at once. The time from connection lost to
+ * subscriptions restored is recorded per client and as {@link LatencyType#RECOVERY}. A SUBSCRIBE that fails or
+ * gets no SUBACK in time is retried with the same backoff, counting as given up once the policy is exhausted.
+ */
+@Slf4j
+public class Reconnector implements MqttCallback {
+
+    // Granted qos of a refused subscription, paho 1.2.0 completes the token successfully with it
+    private static final int SUBACK_FAILURE = 0x80;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mqtt-reconnect");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final MqttConnection connection;
+    private final ReconnectPolicy policy;
+    private final MqttCallback delegate;
+    private final Random random = new Random();
+    private final LatencyRecorder recovery = new LatencyRecorder();
+    private final AtomicInteger lost = new AtomicInteger();
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final AtomicInteger recovered = new AtomicInteger();
+    private final AtomicInteger givenUp = new AtomicInteger();
+    private volatile long lostNanos;
+    private volatile boolean closed;
+
+    private Reconnector(MqttConnection connection, ReconnectPolicy policy, MqttCallback delegate) {
+        this.connection = connection;
+        this.policy = policy;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Put a reconnector in front of delegate as the callback of connection
+     */
+    public static Reconnector install(MqttConnection connection, ReconnectPolicy policy, MqttCallback delegate) {
+        Reconnector reconnector = new Reconnector(connection, policy, delegate);
+        connection.getClient().setCallback(reconnector);
+        return reconnector;
+    }
+
+    /**
+     * Stop reconnecting, call it before a deliberate disconnect
+     */
+    public void close() {
+        closed = true;
+    }
+
+    public int getLost() {
+        return lost.get();
+    }
+
+    public int getAttempts() {
+        return attempts.get();
+    }
+
+    public int getRecovered() {
+        return recovered.get();
+    }
+
+    public int getGivenUp() {
+        return givenUp.get();
+    }
+
+    public LatencyRecorder getRecovery() {
+        return recovery;
+    }
+
+    @Override
+    public void connectionLost(Throwable cause) {
+        if (delegate != null) {
+            delegate.connectionLost(cause);
+        }
+        if (closed) {
+            return;
+        }
+        lostNanos = System.nanoTime();
+        lost.incrementAndGet();
+        schedule(0);
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) throws Exception {
+        if (delegate != null) {
+            delegate.messageArrived(topic, message);
+        }
+    }
+
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken token) {
+        if (delegate != null) {
+            delegate.deliveryComplete(token);
+        }
+    }
+
+    private void schedule(final int attempt) {
+        if (policy.isExhausted(attempt)) {
+            log.warn("Client {} gave up reconnecting after {} attempts", connection.getClient().getClientId(),
+                    attempt);
+            givenUp.incrementAndGet();
+            return;
+        }
+        SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attempt(attempt);
+            }
+        }, policy.delayMillis(attempt, random), TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt(final int attempt) {
+        if (closed) {
+            return;
+        }
+        attempts.incrementAndGet();
+        try {
+            connection.connectAsync(new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    resubscribe(attempt, 0);
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    schedule(attempt + 1);
+                }
+            });
+        } catch (Exception e) {
+            log.debug("Client {} reconnect failed: {}", connection.getClient().getClientId(), e.getMessage());
+            schedule(attempt + 1);
+        }
+    }
+
+    private void resubscribe(final int attempt, final int retry) {
+        if (closed) {
+            return;
+        }
+        String[] topics = connection.getSubscriptions().keySet().toArray(new String[0]);
+        if (topics.length == 0) {
+            onRecovered(attempt);
+            return;
+        }
+        int[] qosList = new int[topics.length];
+        for (int i = 0; i < topics.length; i++) {
+            Integer qos = connection.getSubscriptions().get(topics[i]);
+            qosList[i] = qos == null ? 0 : qos;
+        }
+        final int generation = lost.get();
+        // Set by whichever of the ack, the failure and the timeout comes first
+        final AtomicBoolean settled = new AtomicBoolean();
+        try {
+            // Topics are kept namespaced already
+            connection.getClient().subscribe(topics, qosList, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    if (!settled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    for (int granted : asyncActionToken.getGrantedQos()) {
+                        if (granted == SUBACK_FAILURE) {
+                            retryResubscribe(attempt, retry, generation, "subscription refused");
+                            return;
+                        }
+                    }
+                    onRecovered(attempt);
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    if (settled.compareAndSet(false, true)) {
+                        retryResubscribe(attempt, retry, generation, exception.getMessage());
+                    }
+                }
+            });
+            SCHEDULER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (settled.compareAndSet(false, true)) {
+                        retryResubscribe(attempt, retry, generation, "no SUBACK in time");
+                    }
+                }
+            }, MqttConnection.ACTION_TIME_OUT, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            if (settled.compareAndSet(false, true)) {
+                retryResubscribe(attempt, retry, generation, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Retry a failed SUBSCRIBE with the backoff of the policy while the client stays connected. A client lost
+     * meanwhile starts over from connectionLost instead.
+     */
+    private void retryResubscribe(final int attempt, final int retry, final int generation, String reason) {
+        log.warn("Client {} resubscribe failed: {}", connection.getClient().getClientId(), reason);
+        if (closed || generation != lost.get() || !connection.getClient().isConnected()) {
+            return;
+        }
+        if (policy.isExhausted(retry + 1)) {
+            log.warn("Client {} gave up resubscribing after {} attempts", connection.getClient().getClientId(),
+                    retry + 1);
+            givenUp.incrementAndGet();
+            return;
+        }
+        SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (generation == lost.get()) {
+                    resubscribe(attempt, retry + 1);
+                }
+            }
+        }, policy.delayMillis(retry + 1, random), TimeUnit.MILLISECONDS);
+    }
+
+    private void onRecovered(int attempt) {
+        long nanos = System.nanoTime() - lostNanos;
+        recovery.recordNanos(nanos);
+        LatencyStats.recordNanos(LatencyType.RECOVERY, nanos);
+        recovered.incrementAndGet();
+        log.debug("Client {} recovered after {} attempts in {} ms", connection.getClient().getClientId(),
+                attempt + 1, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+}
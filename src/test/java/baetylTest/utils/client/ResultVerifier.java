@@ -0,0 +1,228 @@
+package baetylTest.utils.client;
+
+import baetylTest.utils.Converter;
+import baetylTest.utils.msg.EdgeDeviceFunctionResultMsg;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+/**
+ * Incremental verifier of rule results, matching each result as it arrives against a multiset of expected msgs.
+ *
+ * Every msg is parsed once into a JsonNode and reduced to keys following the rules of
+ * EdgeDeviceMQTTChecker.checkMessage: a result wrapper is unwrapped, function results are compared without the
+ * invoke specific context fields, error msgs by their errorType, other json objects as a whole with key order
+ * ignored, anything else as a raw string. Keys are strict, equal keys always pass checkMessage. A result
+ * without a key match, e.g. a number expected as the string "1.0E5", is checked against the unmatched expected
+ * msgs one by one with checkMessage, so verdicts stay the same as before while the common case is a hash lookup.
+ *
+ * Not thread safe, offer results from one thread.
+ */
+public class ResultVerifier {
+
+    private static final String RESULT_KEY = "result";
+    private static final String CONTEXT_KEY = "context";
+    private static final String RAW = "raw";
+    private static final String ERROR = "error";
+    private static final String FUNCTION = "function";
+    private static final String OBJECT = "object";
+    private static final String WRAPPED = "wrapped";
+
+    private final Map<JsonNode, Deque<Expectation>> index = new HashMap<JsonNode, Deque<Expectation>>();
+    private final List<Expectation> expectations = new ArrayList<Expectation>();
+    private final List<String> unexpected = new ArrayList<String>();
+    private int matched;
+    private int scanned;
+
+    public ResultVerifier(List<String> expectList) {
+        for (String expectedMsg : expectList) {
+            Expectation expectation = new Expectation(expectedMsg);
+            expectations.add(expectation);
+            for (JsonNode key : expectedKeys(expectedMsg)) {
+                Deque<Expectation> candidates = index.get(key);
+                if (candidates == null) {
+                    candidates = new ArrayDeque<Expectation>();
+                    index.put(key, candidates);
+                }
+                candidates.add(expectation);
+            }
+        }
+    }
+
+    /**
+     * Match one received msg
+     *
+     * @return  false if no unmatched expected msg fits it, it's kept as unexpected then
+     */
+    public boolean offer(String actualMsg) {
+        for (JsonNode key : actualKeys(actualMsg)) {
+            Deque<Expectation> candidates = index.get(key);
+            while (candidates != null && !candidates.isEmpty()) {
+                // Expectations indexed under several keys may have been taken through another one
+                Expectation expectation = candidates.poll();
+                if (!expectation.matched) {
+                    expectation.matched = true;
+                    matched++;
+                    return true;
+                }
+            }
+        }
+        for (Expectation expectation : expectations) {
+            if (!expectation.matched && checks(expectation.message, actualMsg)) {
+                expectation.matched = true;
+                matched++;
+                scanned++;
+                return true;
+            }
+        }
+        unexpected.add(actualMsg);
+        return false;
+    }
+
+    public boolean isComplete() {
+        return matched == expectations.size();
+    }
+
+    public int getMatched() {
+        return matched;
+    }
+
+    /**
+     * @return  matched results which missed the keys and were found by checking one by one
+     */
+    public int getScanned() {
+        return scanned;
+    }
+
+    /**
+     * @return  expected msgs not matched yet, in expected order
+     */
+    public List<String> getMissing() {
+        List<String> missing = new ArrayList<String>();
+        for (Expectation expectation : expectations) {
+            if (!expectation.matched) {
+                missing.add(expectation.message);
+            }
+        }
+        return missing;
+    }
+
+    public List<String> getUnexpected() {
+        return unexpected;
+    }
+
+    private static boolean checks(String expectedMsg, String actualMsg) {
+        try {
+            EdgeDeviceMQTTChecker.checkMessage(expectedMsg, actualMsg);
+            return true;
+        } catch (AssertionError e) {
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static List<JsonNode> expectedKeys(String message) {
+        List<JsonNode> keys = new ArrayList<JsonNode>();
+        JsonNode node = parseObject(message);
+        if (node == null) {
+            // A plain expected msg is an error type or a raw string
+            keys.add(key(ERROR, Converter.om.getNodeFactory().textNode(message)));
+            keys.add(key(RAW, Converter.om.getNodeFactory().textNode(message)));
+            return keys;
+        }
+        addObjectKeys(keys, node, false);
+        return keys;
+    }
+
+    private static List<JsonNode> actualKeys(String message) {
+        List<JsonNode> keys = new ArrayList<JsonNode>();
+        JsonNode node = parseObject(message);
+        if (node == null) {
+            keys.add(key(RAW, Converter.om.getNodeFactory().textNode(message)));
+            return keys;
+        }
+        addObjectKeys(keys, node, true);
+        return keys;
+    }
+
+    private static void addObjectKeys(List<JsonNode> keys, JsonNode node, boolean actual) {
+        String wrapper = OBJECT;
+        if (node.has(RESULT_KEY)) {
+            node = node.get(RESULT_KEY);
+            if (!node.isObject()) {
+                return;
+            }
+            wrapper = WRAPPED;
+        }
+        if (node.path(CONTEXT_KEY).isObject()) {
+            JsonNode functionResult = functionResult(node, actual);
+            if (functionResult != null) {
+                keys.add(key(wrapper + FUNCTION, functionResult));
+            }
+        }
+        if (actual) {
+            JsonNode errorType = node.has(EdgeDeviceMQTTChecker.ERROR_TYPE) ? node.get(
+                    EdgeDeviceMQTTChecker.ERROR_TYPE) : node.path(EdgeDeviceMQTTChecker.NOT_NAMED_KEY).path(
+                    EdgeDeviceMQTTChecker.ERROR_TYPE);
+            if (errorType.isTextual()) {
+                keys.add(key(ERROR, errorType));
+                // Compared by error type only
+                return;
+            }
+        }
+        if (!node.has(CONTEXT_KEY)) {
+            keys.add(key(wrapper + OBJECT, node));
+        }
+    }
+
+    /**
+     * The fields checkFunctionResult compares, with only the fields of the handled context for a result
+     */
+    private static JsonNode functionResult(JsonNode node, boolean actual) {
+        try {
+            EdgeDeviceFunctionResultMsg result = Converter.om.treeToValue(node, EdgeDeviceFunctionResultMsg.class);
+            if (actual) {
+                EdgeRuleFunctionContext context = result.getContext();
+                result.setContext(new EdgeRuleFunctionContext(context.getFunctionName(), context.getMessageQOS(),
+                        context.getMessageTopic(), context.isMessageRetain()));
+            }
+            return Converter.om.valueToTree(result);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static JsonNode parseObject(String message) {
+        try {
+            JsonNode node = Converter.om.readTree(message);
+            return node != null && node.isObject() ? node : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static JsonNode key(String kind, JsonNode value) {
+        ArrayNode key = Converter.om.createArrayNode();
+        key.add(kind);
+        key.add(value);
+        return key;
+    }
+
+    private static class Expectation {
+
+        private final String message;
+        private boolean matched;
+
+        Expectation(String message) {
+            this.message = message;
+        }
+    }
+}
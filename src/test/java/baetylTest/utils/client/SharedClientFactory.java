@@ -0,0 +1,144 @@
+package baetylTest.utils.client;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.ScheduledExecutorPingSender;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+/**
+ * Creates paho connections sharing one thread pool and one pinger, for load runs with thousands of devices.
+ *
+ * By default every MqttAsyncClient owns a scheduled pool of 10 threads plus a Timer thread for pings.
+ * Clients of this factory run their comms on one pool of small-stack threads and ping from one thread.
+ * Paho 1.2.0 still blocks a pool thread for each of the receiver, sender and callback loops of a connected
+ * client, so the pool is sized to THREADS_PER_CONNECTION per connection. Every created connection holds a
+ * slot until its first disconnect, creating more than maxConnections fails fast instead of hanging in connect.
+ *
+ * That is still 3 threads per connection, 30k threads for 10k connections, which few hosts allow. For
+ * fleets of that size use the fusesource devices of EdgeDeviceFleetBenchmark, which share one dispatch queue.
+ */
+@Slf4j
+public class SharedClientFactory {
+
+    public static final int THREADS_PER_CONNECTION = 3;
+    // The comms loops only keep a few frames, a quarter of the default stack is plenty
+    public static final long DEFAULT_STACK_SIZE = 256 * 1024;
+
+    private final int maxConnections;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final SharedExecutor executor;
+    private final SharedExecutor pinger;
+
+    /**
+     * @param maxConnections  connections open at the same time
+     */
+    public SharedClientFactory(int maxConnections) {
+        this(maxConnections, DEFAULT_STACK_SIZE);
+    }
+
+    public SharedClientFactory(int maxConnections, long stackSize) {
+        this.maxConnections = maxConnections;
+        // One more for the short lived connect task of a client
+        this.executor = new SharedExecutor(maxConnections * THREADS_PER_CONNECTION + 1,
+                new SmallStackThreadFactory("paho-shared", stackSize));
+        this.pinger = new SharedExecutor(1, new SmallStackThreadFactory("paho-pinger", stackSize));
+    }
+
+    public MqttConnection create(String brokerUrl, String clientId, boolean tls, String certPath,
+                                 MqttConnectOptions connectOptions) {
+        if (openConnections.incrementAndGet() > maxConnections) {
+            openConnections.decrementAndGet();
+            throw new IllegalStateException(String.format("Shared paho pool is full, sized for %d connections",
+                    maxConnections));
+        }
+        MqttConnection connection = new MqttConnection(brokerUrl, clientId, tls, certPath, new MemoryPersistence(),
+                connectOptions, new ScheduledExecutorPingSender(pinger), executor);
+        connection.setReleaseListener(new Runnable() {
+
+            @Override
+            public void run() {
+                openConnections.decrementAndGet();
+            }
+        });
+        return connection;
+    }
+
+    /**
+     * @return  connections created and not disconnected yet
+     */
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return  pool threads started so far, they stay until shutdown
+     */
+    public int getPoolSize() {
+        return executor.getPoolSize() + pinger.getPoolSize();
+    }
+
+    /**
+     * Stop the shared threads, disconnect every connection first
+     */
+    public void shutdown() {
+        executor.terminate();
+        pinger.terminate();
+        log.info("Shared paho pool stopped");
+    }
+
+    /**
+     * Pool which ignores shutdown requests, paho 1.2.0 shuts down the executor of a client when it is closed
+     */
+    private static class SharedExecutor extends ScheduledThreadPoolExecutor {
+
+        SharedExecutor(int threads, ThreadFactory threadFactory) {
+            super(threads, threadFactory);
+            setRemoveOnCancelPolicy(true);
+        }
+
+        @Override
+        public void shutdown() {
+            log.debug("Ignore shutdown of shared paho pool by a client");
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            log.debug("Ignore shutdownNow of shared paho pool by a client");
+            return Collections.emptyList();
+        }
+
+        void terminate() {
+            super.shutdownNow();
+        }
+    }
+
+    private static class SmallStackThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final long stackSize;
+        private final AtomicInteger count = new AtomicInteger();
+
+        SmallStackThreadFactory(String prefix, long stackSize) {
+            this.prefix = prefix;
+            this.stackSize = stackSize;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(null, runnable, String.format("%s-%d", prefix, count.incrementAndGet()),
+                    stackSize);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package baetylTest.utils.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMReader;
+
+/**
+ * Shared cache of SSLContext keyed by protocol, ca, client cert and client key paths.
+ *
+ * Loading pem files and building key stores costs much more than the handshake itself,
+ * so it is done once per distinct key and reused by paho and fusesource connections.
+ * SSLContext and its socket factory are thread safe.
+ *
+ * A cached context also shares its client session cache, so later connections to the same hub resume the tls
+ * session instead of doing a full handshake. Use {@link #newContext} where full handshakes are to be measured.
+ */
+@Slf4j
+public class SslContextCache {
+
+    public static final String TLS = "TLS";
+    public static final String SSL = "SSL";
+    private static final String CERT_ALGORITHM = "X.509";
+    private static final String TRUST_ALGORITHM = "X509";
+    private static final String KEY_ALGORITHM = "SunX509";
+    private static final String KEY_STORE_TYPE = "JCEKS";
+    private static final String PRIVATE_KEY_ALGORITHM = "RSA";
+    private static final String CERT_FILE_TYPE = "ca";
+    private static final char[] KEY_STORE_PASSWORD = "changeit".toCharArray();
+
+    private static final ConcurrentMap<String, SSLContext> CONTEXTS = new ConcurrentHashMap<String, SSLContext>();
+    private static final ConcurrentMap<String, Managers> MANAGERS = new ConcurrentHashMap<String, Managers>();
+
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    /**
+     * @param protocol        TLS or SSL
+     * @param certPath        ca to trust, null to use the default trust managers
+     * @param clientCertPath  client cert for two way tls, null for one way
+     * @param clientKeyPath   client key for two way tls, null for one way
+     * @return  cached context, built on first use
+     */
+    public static SSLContext getContext(String protocol, String certPath, String clientCertPath,
+                                        String clientKeyPath) throws Exception {
+        String key = key(protocol, certPath, clientCertPath, clientKeyPath);
+        SSLContext context = CONTEXTS.get(key);
+        if (context != null) {
+            return context;
+        }
+        synchronized (CONTEXTS) {
+            context = CONTEXTS.get(key);
+            if (context == null) {
+                log.info("Building ssl context {}", key);
+                context = newContext(protocol, certPath, clientCertPath, clientKeyPath);
+                CONTEXTS.put(key, context);
+            }
+            return context;
+        }
+    }
+
+    /**
+     * Context of its own, with an empty session cache, sharing only the loaded trust and key managers
+     *
+     * @see #getContext
+     */
+    public static SSLContext newContext(String protocol, String certPath, String clientCertPath,
+                                        String clientKeyPath) throws Exception {
+        Managers managers = getManagers(certPath, clientCertPath, clientKeyPath);
+        SSLContext context = SSLContext.getInstance(protocol);
+        context.init(managers.keyManagers, managers.trustManagers, null);
+        return context;
+    }
+
+    public static SSLSocketFactory getSocketFactory(String protocol, String certPath, String clientCertPath,
+                                                    String clientKeyPath) throws Exception {
+        return getContext(protocol, certPath, clientCertPath, clientKeyPath).getSocketFactory();
+    }
+
+    public static void clear() {
+        CONTEXTS.clear();
+        MANAGERS.clear();
+    }
+
+    private static String key(String protocol, String certPath, String clientCertPath, String clientKeyPath) {
+        return String.format("%s|%s|%s|%s", protocol, certPath, clientCertPath, clientKeyPath);
+    }
+
+    private static Managers getManagers(String certPath, String clientCertPath, String clientKeyPath)
+            throws Exception {
+        String key = key(null, certPath, clientCertPath, clientKeyPath);
+        Managers managers = MANAGERS.get(key);
+        if (managers != null) {
+            return managers;
+        }
+        synchronized (MANAGERS) {
+            managers = MANAGERS.get(key);
+            if (managers == null) {
+                managers = new Managers(clientCertPath == null ? null : getKeyManager(clientCertPath, clientKeyPath),
+                        certPath == null ? null : getTrustManager(certPath));
+                MANAGERS.put(key, managers);
+            }
+            return managers;
+        }
+    }
+
+    private static TrustManager[] getTrustManager(String certPath) throws Exception {
+        InputStream certInputStream = new FileInputStream(certPath);
+        try {
+            CertificateFactory certFactory = CertificateFactory.getInstance(CERT_ALGORITHM);
+            Certificate cert = certFactory.generateCertificate(certInputStream);
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(null);
+            keyStore.setCertificateEntry(CERT_FILE_TYPE, cert);
+            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TRUST_ALGORITHM);
+            trustManagerFactory.init(keyStore);
+            return trustManagerFactory.getTrustManagers();
+        } finally {
+            certInputStream.close();
+        }
+    }
+
+    private static KeyManager[] getKeyManager(String clientCertPath, String clientKeyPath) throws Exception {
+        byte[] certBytes = MqttConnection.fileToBytes(clientCertPath);
+        PEMReader reader = new PEMReader(new InputStreamReader(new ByteArrayInputStream(certBytes)));
+        X509Certificate x509Certificate;
+        try {
+            x509Certificate = (X509Certificate) reader.readObject();
+        } finally {
+            reader.close();
+        }
+        PrivateKey privateKey = MqttConnection.getPrivateKey(clientKeyPath, PRIVATE_KEY_ALGORITHM);
+        KeyStore keyStore = KeyStore.getInstance(KEY_STORE_TYPE);
+        keyStore.load(null);
+        keyStore.setCertificateEntry("cert-alias", x509Certificate);
+        keyStore.setKeyEntry("key-alias", privateKey, KEY_STORE_PASSWORD, new Certificate[]{x509Certificate});
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KEY_ALGORITHM);
+        kmf.init(keyStore, KEY_STORE_PASSWORD);
+        return kmf.getKeyManagers();
+    }
+
+    private static class Managers {
+
+        private final KeyManager[] keyManagers;
+        private final TrustManager[] trustManagers;
+
+        Managers(KeyManager[] keyManagers, TrustManager[] trustManagers) {
+            this.keyManagers = keyManagers;
+            this.trustManagers = trustManagers;
+        }
+    }
+}
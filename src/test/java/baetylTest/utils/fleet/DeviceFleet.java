@@ -0,0 +1,261 @@
+package baetylTest.utils.fleet;
+
+import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.TopicNamespace;
+import baetylTest.utils.client.ConnectionType;
+import baetylTest.utils.client.MqttConnection;
+import baetylTest.utils.load.LoadCallback;
+import baetylTest.utils.load.LoadProfile;
+import baetylTest.utils.perf.LatencyStats;
+import baetylTest.utils.perf.ResourceUsage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.fusesource.hawtdispatch.DispatchPriority;
+import org.fusesource.hawtdispatch.internal.DispatcherConfig;
+import org.fusesource.mqtt.client.MQTT;
+
+/**
+ * Fleet of simulated devices on fusesource CallbackConnections, tens of thousands per load JVM.
+ *
+ * All devices are serial queues multiplexed on the global hawtdispatch pool (one thread per core, or
+ * -Dhawtdispatch.threads=n), so threads stay flat however many devices run. Each device publishes an
+ * EdgeDeviceSimpleMsg to its telemetry topic once per interval and acks msgs on its command topic. A paho
+ * monitor subscribes to all telemetry, and at the end sends every connected device one command to check
+ * its subscription still works.
+ */
+@Slf4j
+public class DeviceFleet {
+
+    private static final String WILDCARD_SUFFIX = "/+/telemetry";
+    private static final String COMMAND_PAYLOAD = "{\"command\":\"ping\"}";
+    // Paho 1.2.0 can leak its inflight count on a burst of qos0 publishes, qos1 commands are released by acks
+    private static final int COMMAND_QOS = 1;
+    private static final int COMMAND_WINDOW = 100;
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+
+    private final FleetProfile profile;
+    private final List<SimulatedDevice> devices = new ArrayList<SimulatedDevice>();
+    private final AtomicLong ready = new AtomicLong();
+    private final AtomicLong connectFailed = new AtomicLong();
+    private final AtomicLong telemetrySent = new AtomicLong();
+    private final AtomicLong telemetryFailed = new AtomicLong();
+    private final AtomicLong commandsReceived = new AtomicLong();
+    private final AtomicLong connectionLost = new AtomicLong();
+    private final Random random = new Random();
+    private CountDownLatch started;
+    private MqttConnection monitor;
+    private LoadCallback monitorCallback;
+
+    public DeviceFleet(FleetProfile profile) {
+        if (!ConnectionType.TCP.equals(profile.getConnectionType())
+                && !ConnectionType.SSL.equals(profile.getConnectionType())) {
+            throw new IllegalArgumentException("Fusesource devices only connect over TCP or SSL, not "
+                    + profile.getConnectionType());
+        }
+        this.profile = profile;
+    }
+
+    public FleetReport run() throws Exception {
+        FleetReport report = new FleetReport();
+        report.setDevices(profile.getDevices());
+        ResourceUsage baseline = ResourceUsage.capture();
+        try {
+            startMonitor();
+
+            long connectStart = System.currentTimeMillis();
+            startDevices();
+            report.setConnectMillis(System.currentTimeMillis() - connectStart);
+            report.setConnected(ready.get());
+            report.setConnectFailed(connectFailed.get());
+            log.info("Fleet connected {}/{} devices in {} ms on {} dispatch threads", ready.get(),
+                    profile.getDevices(), report.getConnectMillis(), DispatcherConfig.getDefaultDispatcher()
+                    .getThreadQueues(DispatchPriority.DEFAULT).length);
+
+            ResourceUsage usage = ResourceUsage.capture();
+            report.setThreads(usage.getThreads());
+            report.setHeapPerDevice((usage.getHeapUsed() - baseline.getHeapUsed()) / Math.max(1, ready.get()));
+            log.info("Fleet client resources, {}", usage.perConnection(baseline, (int) ready.get()));
+
+            long telemetryStart = System.currentTimeMillis();
+            long sentBefore = telemetrySent.get();
+            runTelemetry();
+            report.setTelemetryMillis(System.currentTimeMillis() - telemetryStart);
+            report.setTelemetrySent(telemetrySent.get() - sentBefore);
+            report.setTelemetryFailed(telemetryFailed.get());
+
+            report.setCommandsSent(sendCommands());
+            waitFor(commandsReceived, report.getCommandsSent());
+            report.setCommandsReceived(commandsReceived.get());
+            report.setTelemetryReceived(monitorCallback.getReceived());
+            report.setConnectionLost(connectionLost.get());
+        } finally {
+            stop();
+        }
+        log.info("Fleet report: {}", report.summary());
+        LatencyStats.report();
+        return report;
+    }
+
+    public void stop() throws InterruptedException {
+        final CountDownLatch stopped = new CountDownLatch(devices.size());
+        Runnable done = new Runnable() {
+            @Override
+            public void run() {
+                stopped.countDown();
+            }
+        };
+        for (SimulatedDevice device : devices) {
+            device.stop(done);
+        }
+        if (!stopped.await(profile.getDrainSeconds(), TimeUnit.SECONDS)) {
+            log.warn("{} devices didn't disconnect in time", stopped.getCount());
+        }
+        devices.clear();
+        if (monitor != null) {
+            monitor.disconnect();
+            monitor = null;
+        }
+    }
+
+    void onReady() {
+        ready.incrementAndGet();
+        started.countDown();
+    }
+
+    void onConnectFailed() {
+        connectFailed.incrementAndGet();
+        started.countDown();
+    }
+
+    void onTelemetrySent() {
+        telemetrySent.incrementAndGet();
+    }
+
+    void onTelemetryFailed() {
+        telemetryFailed.incrementAndGet();
+    }
+
+    void onCommand() {
+        commandsReceived.incrementAndGet();
+    }
+
+    void onConnectionLost() {
+        connectionLost.incrementAndGet();
+    }
+
+    private void startMonitor() throws Exception {
+        MqttConnectOptions options = PubSubCommon.getDefaultConnectOptions(profile.getUsername(),
+                profile.getPassword());
+        options.setMaxInflight(COMMAND_WINDOW);
+        monitor = PubSubCommon.createMqttConnection(PubSubCommon.generateHostUrl(profile.getHostname(),
+                ConnectionType.TCP, profile.getPortMap()), profile.getClientIdPrefix() + "_monitor", false,
+                profile.getCertPath(), options);
+        monitorCallback = new LoadCallback();
+        monitor.getClient().setCallback(monitorCallback);
+        monitor.connect();
+        PubSubCommon.subscribe(monitor, profile.getTopicPrefix() + WILDCARD_SUFFIX, profile.getQos());
+    }
+
+    /**
+     * Start devices at the connect rate and wait until each of them is subscribed or failed
+     */
+    private void startDevices() throws Exception {
+        started = new CountDownLatch(profile.getDevices());
+        String url = PubSubCommon.generateHostUrl(profile.getHostname(), profile.getConnectionType(),
+                profile.getPortMap());
+        boolean tls = LoadProfile.isTls(profile.getConnectionType());
+        String topicPrefix = TopicNamespace.current().topic(profile.getTopicPrefix());
+        List<String> localAddresses = profile.getLocalAddresses();
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / profile.getConnectRate());
+        long next = System.nanoTime();
+        for (int i = 0; i < profile.getDevices(); i++) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            next += interval;
+
+            String id = String.format("%s_%s", profile.getClientIdPrefix(), i);
+            MQTT mqtt = PubSubCommon.initMqtt(url, id, tls, profile.getCertPath(), profile.getUsername(),
+                    profile.getPassword());
+            mqtt.setKeepAlive(profile.getKeepAliveSeconds());
+            if (!localAddresses.isEmpty()) {
+                mqtt.setLocalAddress(String.format("tcp://%s:0", localAddresses.get(i % localAddresses.size())));
+            }
+            SimulatedDevice device = new SimulatedDevice(this, id, topicPrefix, profile.getQos(),
+                    profile.getTelemetryIntervalMillis());
+            devices.add(device);
+            device.start(mqtt, profile.getTelemetryIntervalMillis() <= 0 ? 0
+                    : (long) (random.nextDouble() * profile.getTelemetryIntervalMillis()));
+        }
+        if (!started.await(profile.getConnectTimeoutSeconds(), TimeUnit.SECONDS)) {
+            log.warn("{} devices neither connected nor failed in {} s", started.getCount(),
+                    profile.getConnectTimeoutSeconds());
+        }
+    }
+
+    private void runTelemetry() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(profile.getDurationSeconds());
+        long lastSent = telemetrySent.get();
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(Math.min(PROGRESS_INTERVAL_MILLIS, Math.max(1, deadline - System.currentTimeMillis())));
+            long sent = telemetrySent.get();
+            log.info("Fleet telemetry sent {} (+{}), failed {}, monitor received {}, connection lost {}", sent,
+                    sent - lastSent, telemetryFailed.get(), monitorCallback.getReceived(), connectionLost.get());
+            lastSent = sent;
+        }
+    }
+
+    /**
+     * Publish one command to every connected device from the monitor connection, giving up after drainSeconds
+     *
+     * @return  commands sent
+     */
+    private long sendCommands() throws Exception {
+        byte[] payload = PubSubCommon.toPayload(COMMAND_PAYLOAD, null);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(profile.getDrainSeconds());
+        long sent = 0;
+        for (SimulatedDevice device : devices) {
+            if (!device.isConnected()) {
+                continue;
+            }
+            // Device topics are namespaced already, publish them as they are
+            while (true) {
+                try {
+                    monitor.getClient().publish(device.getCommandTopic(), payload, COMMAND_QOS, false);
+                    sent++;
+                    break;
+                } catch (MqttException e) {
+                    if (e.getReasonCode() != MqttException.REASON_CODE_MAX_INFLIGHT) {
+                        log.warn("Send command failed: {}", e.getMessage());
+                        return sent;
+                    }
+                    if (System.currentTimeMillis() > deadline) {
+                        log.warn("Send commands timed out after {} of {}", sent, devices.size());
+                        return sent;
+                    }
+                    // Give acks a moment
+                    Thread.sleep(1);
+                }
+            }
+        }
+        return sent;
+    }
+
+    private void waitFor(AtomicLong counter, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(profile.getDrainSeconds());
+        while (counter.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package baetylTest.utils.fleet;
+
+import baetylTest.utils.client.ConnectionType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Data;
+
+/**
+ * Settings of one device fleet run
+ */
+@Data
+public class FleetProfile {
+
+    public static final String ADDRESS_SEPARATOR = ",";
+
+    private String hostname;
+    private Map<String, Integer> portMap;
+    private String certPath;
+    private String username;
+    private String password;
+
+    // Simulated devices, fusesource only speaks TCP and SSL
+    private int devices = 1000;
+    private ConnectionType connectionType = ConnectionType.TCP;
+    // New connections per second, so the fleet doesn't arrive as one SYN flood
+    private double connectRate = 1000;
+    private long connectTimeoutSeconds = 120;
+
+    // Every device publishes telemetry to topicPrefix/id/telemetry once per interval and listens on
+    // topicPrefix/id/command
+    private long telemetryIntervalMillis = 10 * 1000;
+    private long durationSeconds = 60;
+    private long drainSeconds = 10;
+    private int qos = 0;
+    private short keepAliveSeconds = 60;
+    private String topicPrefix = "fleet/" + System.currentTimeMillis();
+    private String clientIdPrefix = "fleet_" + System.currentTimeMillis();
+
+    // Source ips devices bind to round robin, e.g. 127.0.0.1,127.0.0.2. One source ip only has about
+    // 28k ephemeral ports towards one hub port, more devices need more addresses.
+    private List<String> localAddresses = new ArrayList<String>();
+
+    /**
+     * Parse a comma separated address list, blanks are skipped
+     */
+    public static List<String> parseAddresses(String addresses) {
+        List<String> result = new ArrayList<String>();
+        if (addresses == null) {
+            return result;
+        }
+        for (String address : addresses.split(ADDRESS_SEPARATOR)) {
+            if (!address.trim().isEmpty()) {
+                result.add(address.trim());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fleet wide telemetry rate, msg/s
+     */
+    public double getTelemetryRate() {
+        return telemetryIntervalMillis <= 0 ? 0 : devices * 1000.0 / telemetryIntervalMillis;
+    }
+}
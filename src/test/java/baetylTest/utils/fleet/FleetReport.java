@@ -0,0 +1,37 @@
+package baetylTest.utils.fleet;
+
+import lombok.Data;
+
+/**
+ * Result of one device fleet run
+ */
+@Data
+public class FleetReport {
+
+    private int devices;
+    private long connected;
+    private long connectFailed;
+    private long connectMillis;
+    private int threads;
+    private long heapPerDevice;
+
+    private long telemetrySent;
+    private long telemetryFailed;
+    private long telemetryReceived;
+    private long telemetryMillis;
+    private long commandsSent;
+    private long commandsReceived;
+    private long connectionLost;
+
+    public double getTelemetryRate() {
+        return telemetryMillis == 0 ? 0 : telemetrySent * 1000.0 / telemetryMillis;
+    }
+
+    public String summary() {
+        return String.format("devices %d, connected %d (failed %d) in %d ms, threads %d, heap %d bytes per device, "
+                + "telemetry sent %d (failed %d) = %.1f msg/s, received %d, commands received %d/%d, "
+                + "connection lost %d", devices, connected, connectFailed, connectMillis, threads, heapPerDevice,
+                telemetrySent, telemetryFailed, getTelemetryRate(), telemetryReceived, commandsReceived,
+                commandsSent, connectionLost);
+    }
+}
@@ -0,0 +1,218 @@
+package baetylTest.utils.fleet;
+
+import baetylTest.utils.Converter;
+import baetylTest.utils.msg.EdgeDeviceSimpleMsg;
+import baetylTest.utils.perf.LatencyStats;
+import baetylTest.utils.perf.LatencyType;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.UTF8Buffer;
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.mqtt.client.Callback;
+import org.fusesource.mqtt.client.CallbackConnection;
+import org.fusesource.mqtt.client.ExtendedListener;
+import org.fusesource.mqtt.client.MQTT;
+import org.fusesource.mqtt.client.QoS;
+import org.fusesource.mqtt.client.Topic;
+
+/**
+ * One device of a {@link DeviceFleet}: a fusesource CallbackConnection publishing telemetry on a timer and
+ * listening on its command topic.
+ *
+ * Everything after connect runs on the connection's dispatch queue, a serial queue on the shared hawtdispatch
+ * pool, so an idle device costs no thread.
+ */
+@Slf4j
+class SimulatedDevice implements ExtendedListener {
+
+    private static final String TELEMETRY_SUFFIX = "/telemetry";
+    private static final String COMMAND_SUFFIX = "/command";
+    // Completion of a command ack, fusesource keeps it until PUBREL for qos 2 and calls it without a null check
+    private static final Callback<Void> ACK_DONE = new Callback<Void>() {
+        @Override
+        public void onSuccess(Void value) {
+        }
+
+        @Override
+        public void onFailure(Throwable value) {
+        }
+    };
+
+    private final DeviceFleet fleet;
+    private final String id;
+    private final String telemetryTopic;
+    private final String commandTopic;
+    private final QoS qos;
+    private final long intervalMillis;
+    private CallbackConnection connection;
+    private int sequence;
+    private volatile boolean connected;
+    private volatile boolean stopped;
+
+    private final Runnable publishTask = new Runnable() {
+        @Override
+        public void run() {
+            publishTelemetry();
+        }
+    };
+
+    SimulatedDevice(DeviceFleet fleet, String id, String topicPrefix, int qos, long intervalMillis) {
+        this.fleet = fleet;
+        this.id = id;
+        this.telemetryTopic = String.format("%s/%s%s", topicPrefix, id, TELEMETRY_SUFFIX);
+        this.commandTopic = String.format("%s/%s%s", topicPrefix, id, COMMAND_SUFFIX);
+        this.qos = QoS.values()[qos];
+        this.intervalMillis = intervalMillis;
+    }
+
+    String getCommandTopic() {
+        return commandTopic;
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Connect and subscribe, the fleet is told the outcome through onReady or onConnectFailed
+     *
+     * @param firstDelayMillis  delay of the first telemetry, spreads the fleet over the interval
+     */
+    void start(MQTT mqtt, final long firstDelayMillis) {
+        final long startTime = System.nanoTime();
+        connection = mqtt.callbackConnection();
+        connection.listener(this);
+        connection.connect(new Callback<Void>() {
+            @Override
+            public void onSuccess(Void value) {
+                LatencyStats.recordNanos(LatencyType.CONNECT, System.nanoTime() - startTime);
+                subscribe(firstDelayMillis);
+            }
+
+            @Override
+            public void onFailure(Throwable value) {
+                log.debug("Device {} connect failed: {}", id, value.getMessage());
+                fleet.onConnectFailed();
+            }
+        });
+    }
+
+    /**
+     * Disconnect, done runs once the disconnect completed or failed
+     */
+    void stop(final Runnable done) {
+        stopped = true;
+        if (connection == null) {
+            done.run();
+            return;
+        }
+        connection.getDispatchQueue().execute(new Runnable() {
+            @Override
+            public void run() {
+                connected = false;
+                connection.disconnect(new Callback<Void>() {
+                    @Override
+                    public void onSuccess(Void value) {
+                        done.run();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable value) {
+                        done.run();
+                    }
+                });
+            }
+        });
+    }
+
+    private void subscribe(final long firstDelayMillis) {
+        final long startTime = System.nanoTime();
+        connection.subscribe(new Topic[]{new Topic(commandTopic, qos)}, new Callback<byte[]>() {
+            @Override
+            public void onSuccess(byte[] value) {
+                LatencyStats.recordNanos(LatencyType.SUBSCRIBE, System.nanoTime() - startTime);
+                connected = true;
+                fleet.onReady();
+                if (intervalMillis > 0) {
+                    connection.getDispatchQueue().executeAfter(firstDelayMillis, TimeUnit.MILLISECONDS,
+                            publishTask);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable value) {
+                log.debug("Device {} subscribe failed: {}", id, value.getMessage());
+                fleet.onConnectFailed();
+            }
+        });
+    }
+
+    private void publishTelemetry() {
+        if (stopped || !connected) {
+            return;
+        }
+        DispatchQueue queue = connection.getDispatchQueue();
+        queue.executeAfter(intervalMillis, TimeUnit.MILLISECONDS, publishTask);
+
+        EdgeDeviceSimpleMsg msg = new EdgeDeviceSimpleMsg(id, "telemetry");
+        msg.setValue(sequence++);
+        byte[] payload;
+        try {
+            payload = Converter.om.writeValueAsBytes(msg);
+        } catch (Exception e) {
+            fleet.onTelemetryFailed();
+            return;
+        }
+        connection.publish(telemetryTopic, payload, qos, false, new Callback<Void>() {
+            @Override
+            public void onSuccess(Void value) {
+                fleet.onTelemetrySent();
+            }
+
+            @Override
+            public void onFailure(Throwable value) {
+                fleet.onTelemetryFailed();
+            }
+        });
+    }
+
+    @Override
+    public void onConnected() {
+    }
+
+    @Override
+    public void onDisconnected() {
+        lost("disconnected");
+    }
+
+    @Override
+    public void onPublish(UTF8Buffer topic, Buffer body, Callback<Callback<Void>> ack) {
+        ack.onSuccess(ACK_DONE);
+        fleet.onCommand();
+    }
+
+    /**
+     * Not called, CallbackConnection delivers to the callback variant of an ExtendedListener
+     */
+    @Override
+    public void onPublish(UTF8Buffer topic, Buffer body, Runnable ack) {
+        ack.run();
+        fleet.onCommand();
+    }
+
+    @Override
+    public void onFailure(Throwable value) {
+        lost(value.getMessage());
+    }
+
+    private void lost(String reason) {
+        if (connected && !stopped) {
+            connected = false;
+            log.debug("Device {} lost connection: {}", id, reason);
+            fleet.onConnectionLost();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package baetylTest.utils.fusesource;
 
+import baetylTest.utils.TopicNamespace;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -24,7 +26,7 @@ public class FuseConnectedAndSubCallback implements Callback {
     public static final long TIME_OUT = 15 * 1000;  // 15s
     
     public FuseConnectedAndSubCallback(String clientId, CallbackConnection connection, String topic, QoS qos) {
-        Topic[] topics = {new Topic(topic, qos)};
+        Topic[] topics = {new Topic(TopicNamespace.current().topic(topic), qos)};
         this.clientId = clientId;
         this.connection = connection;
         this.topics = topics;
@@ -42,7 +44,10 @@ public class FuseConnectedAndSubCallback implements Callback {
             @Override
             public void onSuccess(byte[] value) {
                 log.info("{} subscribed {} successfully", clientId, topicStrList.toString());
-                isSubReady = true;
+                synchronized (FuseConnectedAndSubCallback.this) {
+                    isSubReady = true;
+                    FuseConnectedAndSubCallback.this.notifyAll();
+                }
             }
 
             @Override
@@ -58,10 +63,12 @@ public class FuseConnectedAndSubCallback implements Callback {
 
     }
 
-    public boolean waitForSubReady() throws Exception {
-        long startTime = System.currentTimeMillis();
-        while (!isSubReady && System.currentTimeMillis() - startTime < TIME_OUT) {
-            Thread.sleep(2000);
+    public synchronized boolean waitForSubReady() throws Exception {
+        long deadline = System.currentTimeMillis() + TIME_OUT;
+        long remaining = TIME_OUT;
+        while (!isSubReady && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
         }
         
         return isSubReady;
@@ -1,5 +1,7 @@
 package baetylTest.utils.fusesource;
 
+import baetylTest.utils.TopicNamespace;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -26,6 +28,7 @@ public class FuseSubNoAckListener extends FuseListener {
     protected boolean sendAck = false;
     protected Map<String, List<String>> receiveListMap = new HashMap<String, List<String>>();
     protected List<Buffer> receivedBufferMsgList = new ArrayList<Buffer>();
+    protected TopicNamespace namespace = TopicNamespace.current();
     public static final long WAIT_TIME_OUT = 10 * 1000;
     public static final long REFORWARD_TIME = 10 * 1000;     // 10s
 
@@ -36,7 +39,7 @@ public class FuseSubNoAckListener extends FuseListener {
     
     @Override
     public void onPublish(UTF8Buffer topic, Buffer body, Runnable ack) {
-        String topicStr = topic.toString();
+        String topicStr = namespace.strip(topic.toString());
         String payload = body.ascii().toString();
         receivedBufferMsgList.add(body);
         synchronized (this) {
@@ -46,6 +49,7 @@ public class FuseSubNoAckListener extends FuseListener {
             } else {
                 receiveListMap.put(topicStr, new ArrayList<String>(Collections.singletonList(payload)));
             }
+            notifyAll();
         }
         if (!sendAck) {
             log.info("Do not send ack to msg {}", payload);
@@ -82,14 +86,24 @@ public class FuseSubNoAckListener extends FuseListener {
             waitTimeOut = timeout[0] * 1000;
         }
         
-        long start = System.currentTimeMillis();
-        while ((!receiveListMap.containsKey(topic) || receiveListMap.get(topic).size() < expectedCount) && System
-                .currentTimeMillis() - start < waitTimeOut) {
-            Thread.sleep(1000);
-            log.info("Waiting for msg for topic {} ...", topic);
+        long deadline = System.currentTimeMillis() + waitTimeOut;
+        synchronized (this) {
+            if (countOf(topic) < expectedCount) {
+                log.info("Waiting for {} msgs for topic {} ...", expectedCount, topic);
+            }
+            long remaining = waitTimeOut;
+            while (countOf(topic) < expectedCount && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
         }
         return getReceiveListMap(topic);
     }
+
+    private int countOf(String topic) {
+        List<String> received = receiveListMap.get(topic);
+        return received == null ? 0 : received.size();
+    }
     
     public static void checkDupFlag(Buffer msg, boolean dup) {
         log.info("Check dup flag should be {}", dup);
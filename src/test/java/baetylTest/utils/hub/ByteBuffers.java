@@ -0,0 +1,32 @@
+package baetylTest.utils.hub;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Growable buffers of hub connections, all in write mode unless told otherwise
+ */
+class ByteBuffers {
+
+    /**
+     * @return  buffer with at least extra bytes remaining, a bigger copy if needed
+     */
+    static ByteBuffer ensure(ByteBuffer buffer, int extra) {
+        if (buffer.remaining() >= extra) {
+            return buffer;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + extra);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    /**
+     * Append src in read mode to dst in write mode
+     */
+    static ByteBuffer append(ByteBuffer dst, ByteBuffer src) {
+        dst = ensure(dst, src.remaining());
+        dst.put(src);
+        return dst;
+    }
+}
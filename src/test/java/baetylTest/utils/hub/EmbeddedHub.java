@@ -0,0 +1,237 @@
+package baetylTest.utils.hub;
+
+import baetylTest.utils.client.SslContextCache;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.SSLContext;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-process stand-in of baetyl hub for running tests and benchmarks without docker.
+ *
+ * Driven by the hub service.yml: listen endpoints (tcp, ssl, ws, wss), principals and their permits,
+ * subscription routes with qos migration and message.length.max. Sessions, retained and will msgs are
+ * kept in memory only. Connections are spread over one selector thread per core, so thousands of them
+ * cost a few threads and buffers each.
+ *
+ * Run it standalone with the configured ports through {@link #main}, or share one per test JVM on
+ * ephemeral ports with {@link #getShared}.
+ */
+@Slf4j
+public class EmbeddedHub {
+
+    public static final String LOCAL_HOST = "127.0.0.1";
+    private static final int BACKLOG = 1024;
+
+    private static EmbeddedHub shared;
+
+    private final HubConfig config;
+    private final boolean ephemeralPorts;
+    private final HubRouter router;
+    private final Map<String, Integer> ports = new HashMap<String, Integer>();
+    private final List<ServerSocketChannel> servers = new ArrayList<ServerSocketChannel>();
+    private HubWorker[] workers;
+    private Selector acceptSelector;
+    private Thread acceptor;
+    private SSLContext sslContext;
+    private volatile boolean running;
+
+    /**
+     * @param ephemeralPorts  bind free ports instead of the configured ones, see {@link #getPort}
+     */
+    public EmbeddedHub(HubConfig config, boolean ephemeralPorts) {
+        this.config = config;
+        this.ephemeralPorts = ephemeralPorts;
+        this.router = new HubRouter(config);
+    }
+
+    /**
+     * Hub of this JVM loaded from confPath, started on first use and stopped at exit
+     */
+    public static synchronized EmbeddedHub getShared(String confPath) throws Exception {
+        if (shared == null) {
+            final EmbeddedHub hub = new EmbeddedHub(HubConfig.load(confPath), true);
+            hub.start();
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    hub.stop();
+                }
+            });
+            shared = hub;
+        }
+        return shared;
+    }
+
+    public synchronized void start() throws Exception {
+        if (running) {
+            return;
+        }
+        workers = new HubWorker[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new HubWorker(String.format("hub-worker-%d", i));
+            workers[i].start();
+        }
+        acceptSelector = Selector.open();
+        for (HubConfig.Endpoint endpoint : config.getListen()) {
+            if (endpoint.isTls() && !loadSslContext()) {
+                log.warn("Skip {} endpoint without certificate", endpoint.getScheme());
+                continue;
+            }
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.configureBlocking(false);
+            server.socket().setReuseAddress(true);
+            String host = endpoint.getHost().isEmpty() ? null : endpoint.getHost();
+            // A restarted hub binds its ephemeral ports again, so clients can reconnect to the same urls
+            Integer bound = ports.get(endpoint.getScheme());
+            int port = ephemeralPorts ? (bound == null ? 0 : bound) : endpoint.getPort();
+            server.bind(host == null ? new InetSocketAddress(port) : new InetSocketAddress(host, port), BACKLOG);
+            server.register(acceptSelector, SelectionKey.OP_ACCEPT, endpoint);
+            servers.add(server);
+            ports.put(endpoint.getScheme(), server.socket().getLocalPort());
+            log.info("Embedded hub listening on {}://:{}{}", endpoint.getScheme(), server.socket().getLocalPort(),
+                    endpoint.isWebSocket() ? endpoint.getPath() : "");
+        }
+
+        running = true;
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "hub-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        acceptSelector.wakeup();
+        try {
+            acceptor.join();
+            for (ServerSocketChannel server : servers) {
+                server.close();
+            }
+            acceptSelector.close();
+            for (HubWorker worker : workers) {
+                worker.stop();
+            }
+        } catch (Exception e) {
+            log.warn("Stop embedded hub failed: {}", e.getMessage());
+        }
+        servers.clear();
+        log.info("Embedded hub stopped, {}", getStats());
+    }
+
+    /**
+     * @param scheme  tcp, ssl, ws or wss
+     * @return  port bound for scheme, -1 if not listening
+     */
+    public int getPort(String scheme) {
+        Integer port = ports.get(scheme);
+        return port == null ? -1 : port;
+    }
+
+    public HubConfig getConfig() {
+        return config;
+    }
+
+    public int getConnectionCount() {
+        int count = 0;
+        for (HubWorker worker : workers) {
+            count += worker.getConnectionCount();
+        }
+        return count;
+    }
+
+    public long getReceivedCount() {
+        return router.getReceivedCount();
+    }
+
+    public long getDeliveredCount() {
+        return router.getDeliveredCount();
+    }
+
+    public long getDroppedCount() {
+        return router.getDroppedCount();
+    }
+
+    public String getStats() {
+        return String.format("connections %d, sessions %d, filters %d, received %d, delivered %d, dropped %d",
+                getConnectionCount(), router.getSessionCount(), router.getFilterCount(), getReceivedCount(),
+                getDeliveredCount(), getDroppedCount());
+    }
+
+    private boolean loadSslContext() {
+        if (sslContext == null && config.getCertPath() != null) {
+            try {
+                sslContext = SslContextCache.getContext(SslContextCache.TLS, config.getCaPath(),
+                        config.getCertPath(), config.getKeyPath());
+            } catch (Exception e) {
+                log.warn("Load hub certificate {} failed: {}", config.getCertPath(), e.getMessage());
+            }
+        }
+        return sslContext != null;
+    }
+
+    private void accept() {
+        int next = 0;
+        while (running) {
+            try {
+                acceptSelector.select();
+                Iterator<SelectionKey> keys = acceptSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    HubConfig.Endpoint endpoint = (HubConfig.Endpoint) key.attachment();
+                    SocketChannel channel;
+                    // Drain the backlog, connection storms arrive in bursts
+                    while ((channel = ((ServerSocketChannel) key.channel()).accept()) != null) {
+                        channel.configureBlocking(false);
+                        channel.socket().setTcpNoDelay(true);
+                        HubWorker worker = workers[next++ % workers.length];
+                        worker.register(new HubConnection(worker, channel, router,
+                                endpoint.isTls() ? new TlsSession(sslContext) : null,
+                                endpoint.isWebSocket() ? new WebSocketCodec(endpoint.getPath()) : null));
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    log.error("Accept failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the hub on the configured ports until killed
+     *
+     * @param args  optional path of service.yml
+     */
+    public static void main(String[] args) throws Exception {
+        EmbeddedHub hub = new EmbeddedHub(HubConfig.load(args.length > 0 ? args[0] : HubConfig.DEFAULT_CONF_PATH),
+                false);
+        hub.start();
+        while (true) {
+            Thread.sleep(60 * 1000);
+            log.info("Embedded hub {}", hub.getStats());
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package baetylTest.utils.hub;
+
+import baetylTest.utils.TopicMatcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import lombok.Data;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Part of baetyl hub service.yml used by {@link EmbeddedHub}: listen endpoints, certificate, message length
+ * limit, qos1 egress buffer and retry interval, principals and subscriptions. Other keys are ignored.
+ */
+@Data
+public class HubConfig {
+
+    public static final String DEFAULT_CONF_PATH = "./baetylDemo/var/db/baetyl/localhub-conf/service.yml";
+
+    private static final Pattern ENDPOINT_PATTERN = Pattern.compile("^(\\w+)://([^:/]*):(\\d+)(/.*)?$");
+    private static final Pattern SIZE_PATTERN = Pattern.compile("^(\\d+)([kmg]?)b?$");
+    private static final Pattern DURATION_PATTERN = Pattern.compile("^(\\d+)(ms|s|m|h)?$");
+    private static final String CERT_DIR = "cert";
+    private static final String ACTION_PUB = "pub";
+    private static final String ACTION_SUB = "sub";
+
+    private String name;
+    private List<Endpoint> listen = new ArrayList<Endpoint>();
+    private String caPath;
+    private String certPath;
+    private String keyPath;
+    private int maxMessageLength = 32 * 1024;
+    private long retryIntervalMillis = 20 * 1000;
+    private int egressQos1BufferSize = 100;
+    private Map<String, Principal> principals = new LinkedHashMap<String, Principal>();
+    private List<Route> routes = new ArrayList<Route>();
+
+    /**
+     * Load service.yml. Certificate paths are container paths, files missing there are looked up
+     * in the cert dir next to the conf file as mounted by the demo application.yml.
+     */
+    @SuppressWarnings("unchecked")
+    public static HubConfig load(String path) throws IOException {
+        File file = new File(path);
+        Map<String, Object> root;
+        InputStream input = new FileInputStream(file);
+        try {
+            root = (Map<String, Object>) new Yaml().load(input);
+        } finally {
+            input.close();
+        }
+
+        HubConfig config = new HubConfig();
+        config.setName(asString(root.get("name")));
+        for (Object uri : asList(root.get("listen"))) {
+            config.getListen().add(Endpoint.parse(String.valueOf(uri)));
+        }
+
+        Map<String, Object> certificate = asMap(root.get("certificate"));
+        File certDir = new File(file.getAbsoluteFile().getParentFile(), CERT_DIR);
+        config.setCaPath(resolve(asString(certificate.get("ca")), certDir));
+        config.setCertPath(resolve(asString(certificate.get("cert")), certDir));
+        config.setKeyPath(resolve(asString(certificate.get("key")), certDir));
+
+        Map<String, Object> message = asMap(root.get("message"));
+        Object maxLength = asMap(message.get("length")).get("max");
+        if (maxLength != null) {
+            config.setMaxMessageLength((int) parseSize(String.valueOf(maxLength)));
+        }
+        Map<String, Object> egressQos1 = asMap(asMap(message.get("egress")).get("qos1"));
+        Object retryInterval = asMap(egressQos1.get("retry")).get("interval");
+        if (retryInterval != null) {
+            config.setRetryIntervalMillis(parseDuration(String.valueOf(retryInterval)));
+        }
+        Object bufferSize = asMap(egressQos1.get("buffer")).get("size");
+        if (bufferSize != null) {
+            config.setEgressQos1BufferSize(asInt(bufferSize));
+        }
+
+        for (Object item : asList(root.get("principals"))) {
+            Principal principal = Principal.parse(asMap(item));
+            config.getPrincipals().put(principal.getUsername(), principal);
+        }
+        for (Object item : asList(root.get("subscriptions"))) {
+            Map<String, Object> source = asMap(asMap(item).get("source"));
+            Map<String, Object> target = asMap(asMap(item).get("target"));
+            // Targets of other types like function are not served by the hub
+            if (source.get("topic") == null || target.get("topic") == null || target.get("type") != null) {
+                continue;
+            }
+            Route route = new Route();
+            route.setSourceTopic(asString(source.get("topic")));
+            route.setSourceQos(asInt(source.get("qos")));
+            route.setTargetTopic(asString(target.get("topic")));
+            route.setTargetQos(asInt(target.get("qos")));
+            config.getRoutes().add(route);
+        }
+        return config;
+    }
+
+    /**
+     * Parse sizes like 32k, 1m or 1024
+     */
+    public static long parseSize(String size) {
+        Matcher matcher = SIZE_PATTERN.matcher(size.trim().toLowerCase());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+        long value = Long.parseLong(matcher.group(1));
+        String unit = matcher.group(2);
+        int shift = "k".equals(unit) ? 10 : "m".equals(unit) ? 20 : "g".equals(unit) ? 30 : 0;
+        return value << shift;
+    }
+
+    /**
+     * Parse durations like 10s, 2m or 500ms into millis, plain numbers are seconds
+     */
+    public static long parseDuration(String duration) {
+        Matcher matcher = DURATION_PATTERN.matcher(duration.trim().toLowerCase());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid duration " + duration);
+        }
+        long value = Long.parseLong(matcher.group(1));
+        String unit = matcher.group(2);
+        if ("ms".equals(unit)) {
+            return value;
+        }
+        if ("m".equals(unit)) {
+            return value * 60 * 1000;
+        }
+        if ("h".equals(unit)) {
+            return value * 60 * 60 * 1000;
+        }
+        return value * 1000;
+    }
+
+    private static String resolve(String path, File certDir) {
+        if (path == null || new File(path).exists()) {
+            return path;
+        }
+        return new File(certDir, new File(path).getName()).getPath();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object node) {
+        return node instanceof Map ? (Map<String, Object>) node : new LinkedHashMap<String, Object>();
+    }
+
+    private static List<?> asList(Object node) {
+        return node instanceof List ? (List<?>) node : new ArrayList<Object>();
+    }
+
+    private static String asString(Object node) {
+        return node == null ? null : String.valueOf(node);
+    }
+
+    private static int asInt(Object node) {
+        return node == null ? 0 : Integer.parseInt(String.valueOf(node));
+    }
+
+    /**
+     * Listen address like tcp://:8963 or wss://:8966/mqtt
+     */
+    @Data
+    public static class Endpoint {
+        public static final String TCP = "tcp";
+        public static final String SSL = "ssl";
+        public static final String WS = "ws";
+        public static final String WSS = "wss";
+
+        private String scheme;
+        private String host;
+        private int port;
+        private String path;
+
+        public static Endpoint parse(String uri) {
+            Matcher matcher = ENDPOINT_PATTERN.matcher(uri.trim());
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Invalid listen address " + uri);
+            }
+            Endpoint endpoint = new Endpoint();
+            endpoint.setScheme(matcher.group(1).toLowerCase());
+            endpoint.setHost(matcher.group(2));
+            endpoint.setPort(Integer.parseInt(matcher.group(3)));
+            endpoint.setPath(matcher.group(4) == null ? "/" : matcher.group(4));
+            return endpoint;
+        }
+
+        public boolean isTls() {
+            return SSL.equals(scheme) || WSS.equals(scheme);
+        }
+
+        public boolean isWebSocket() {
+            return WS.equals(scheme) || WSS.equals(scheme);
+        }
+    }
+
+    /**
+     * Account and its pub/sub permits, a principal without password authenticates by client cert
+     */
+    @Data
+    public static class Principal {
+        private String username;
+        private String password;
+        private List<String> pubPermits = new ArrayList<String>();
+        private List<String> subPermits = new ArrayList<String>();
+
+        static Principal parse(Map<String, Object> node) {
+            Principal principal = new Principal();
+            principal.setUsername(asString(node.get("username")));
+            principal.setPassword(asString(node.get("password")));
+            for (Object item : asList(node.get("permissions"))) {
+                Map<String, Object> permission = asMap(item);
+                List<String> permits = ACTION_PUB.equals(permission.get("action")) ? principal.getPubPermits()
+                        : ACTION_SUB.equals(permission.get("action")) ? principal.getSubPermits() : null;
+                if (permits != null) {
+                    for (Object permit : asList(permission.get("permit"))) {
+                        permits.add(String.valueOf(permit));
+                    }
+                }
+            }
+            return principal;
+        }
+
+        public boolean canPublish(String topic) {
+            for (String permit : pubPermits) {
+                if (TopicMatcher.matches(permit, topic)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean canSubscribe(String filter) {
+            for (String permit : subPermits) {
+                if (TopicMatcher.covers(permit, filter)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Subscription forwarding msgs of source topic filter to target topic
+     */
+    @Data
+    public static class Route {
+        private String sourceTopic;
+        private int sourceQos;
+        private String targetTopic;
+        private int targetQos;
+    }
+}
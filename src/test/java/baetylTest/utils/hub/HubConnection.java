@@ -0,0 +1,573 @@
+package baetylTest.utils.hub;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Client connection of the embedded hub: transport (tcp, tls, websocket) plus mqtt protocol handling.
+ *
+ * Reading, writing and packet handling run on the owning {@link HubWorker}. Other workers deliver msgs
+ * through {@link #deliver}, which queues the packet and schedules a flush on the owner.
+ *
+ * Like the hub, at most egress qos1 buffer size + 2 qos 1 msgs are outstanding at a time (one picked out for
+ * ack and one sent before it is buffered), the rest wait. As in the hub's buffer channel a slot is only freed
+ * once every older msg is acked too. Unacked msgs are resent one per retry interval,
+ * the oldest first.
+ */
+@Slf4j
+class HubConnection {
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final int SHRINK_THRESHOLD = 64 * 1024;
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;
+    private static final int MAX_PENDING_PACKETS = 100000;
+    // Room for topic, packet id and headers besides the payload limit
+    private static final int PACKET_HEADROOM = 64 * 1024;
+    private static final int QOS1_WINDOW_EXTRA = 2;
+    private static final long CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final Pattern CLIENT_ID_PATTERN = Pattern.compile("^[0-9A-Za-z_-]{0,128}$");
+    private static final String PROTOCOL_V31 = "MQIsdp";
+    private static final String PROTOCOL_V311 = "MQTT";
+    private static final int LEVEL_V31 = 3;
+    private static final int LEVEL_V311 = 4;
+    private static final AtomicLong GENERATED_ID = new AtomicLong();
+
+    private final HubWorker worker;
+    private final SocketChannel channel;
+    private final HubRouter router;
+    private final TlsSession tls;
+    private final WebSocketCodec webSocket;
+    private final String remoteAddress;
+    private final long createTime = System.currentTimeMillis();
+    private final ConcurrentLinkedQueue<byte[]> outbound = new ConcurrentLinkedQueue<byte[]>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ConcurrentLinkedQueue<Inflight> waiting = new ConcurrentLinkedQueue<Inflight>();
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private final Runnable closeTask = new Runnable() {
+        @Override
+        public void run() {
+            closeNow();
+        }
+    };
+
+    private SelectionKey key;
+    private ByteBuffer netIn = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer netOut = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer webSocketIn;
+    private boolean writeInterest;
+    private volatile boolean closed;
+    private long lastReadTime = createTime;
+    private long keepAliveMillis;
+    private String clientId;
+    private HubConfig.Principal principal;
+    private HubSession session;
+    private HubMessage will;
+    // Owned by the worker thread, in send order
+    private final Map<Integer, Inflight> inflight = new LinkedHashMap<Integer, Inflight>();
+    // Admission order, the window is like a channel: an acked msg keeps its slot until all older ones are acked
+    private final ArrayDeque<Inflight> admitted = new ArrayDeque<Inflight>();
+    private int lastPacketId;
+    private long lastRetryTime;
+
+    HubConnection(HubWorker worker, SocketChannel channel, HubRouter router, TlsSession tls,
+                  WebSocketCodec webSocket) {
+        this.worker = worker;
+        this.channel = channel;
+        this.router = router;
+        this.tls = tls;
+        this.webSocket = webSocket;
+        this.webSocketIn = webSocket == null ? null : ByteBuffer.allocate(BUFFER_SIZE);
+        this.remoteAddress = String.valueOf(channel.socket().getRemoteSocketAddress());
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Queue msg for the client, may be called from any thread
+     *
+     * @return  false if the connection is closed or too far behind
+     */
+    boolean deliver(HubMessage message, int qos, boolean retainFlag) {
+        if (closed) {
+            return false;
+        }
+        if (pendingCount.get() >= MAX_PENDING_PACKETS) {
+            log.warn("Client {} has {} packets pending, closing slow consumer", clientId, MAX_PENDING_PACKETS);
+            close();
+            return false;
+        }
+        if (qos == 0) {
+            send(retainFlag ? MqttCodec.publish(message.topic, message.payload, 0, true, false, 0)
+                    : message.encodeQos0());
+        } else {
+            // Packet id is assigned on the worker thread once the msg enters the inflight window
+            waiting.offer(new Inflight(message, retainFlag));
+            pendingCount.incrementAndGet();
+            scheduleFlush();
+        }
+        return true;
+    }
+
+    /**
+     * Close the connection from any thread, the will msg is published if any
+     */
+    void close() {
+        if (worker.inWorkerThread()) {
+            closeNow();
+        } else {
+            worker.execute(closeTask);
+        }
+    }
+
+    void onReadable() {
+        try {
+            netIn = ByteBuffers.ensure(netIn, BUFFER_SIZE);
+            if (channel.read(netIn) < 0) {
+                throw new EOFException("Connection closed by peer");
+            }
+            lastReadTime = System.currentTimeMillis();
+            ByteBuffer mqttIn = readTransport();
+            mqttIn.flip();
+            try {
+                int maxLength = router.getConfig().getMaxMessageLength() + PACKET_HEADROOM;
+                MqttCodec.Packet packet;
+                while (!closed && (packet = MqttCodec.decode(mqttIn, maxLength)) != null) {
+                    handle(packet);
+                }
+            } finally {
+                mqttIn.compact();
+            }
+            if (closed) {
+                return;
+            }
+            if (tls != null && tls.isInboundDone() || webSocket != null && webSocket.isClosed()) {
+                throw new EOFException("Connection closed by peer");
+            }
+            flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    /**
+     * Periodic check on the worker thread: keep alive, connect timeout and qos 1 retry
+     */
+    void sweep(long now) {
+        long idleTime = now - lastReadTime;
+        if (session == null && now - createTime > CONNECT_TIMEOUT_MILLIS
+                || keepAliveMillis > 0 && idleTime > keepAliveMillis) {
+            log.info("Client {} from {} idle for {}ms, closing", clientId, remoteAddress, idleTime);
+            closeNow();
+            return;
+        }
+        long retryInterval = router.getConfig().getRetryIntervalMillis();
+        if (now - lastRetryTime < retryInterval) {
+            return;
+        }
+        Iterator<Map.Entry<Integer, Inflight>> entries = inflight.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Integer, Inflight> entry = entries.next();
+            Inflight item = entry.getValue();
+            if (now - item.sendTime >= retryInterval) {
+                // Move to the end so the next retry picks the next oldest
+                entries.remove();
+                inflight.put(entry.getKey(), item);
+                item.sendTime = now;
+                MqttCodec.setDup(item.packet);
+                send(item.packet);
+                // Keep the cadence while retrying back to back, the sweep runs a bit late each time
+                lastRetryTime = now - lastRetryTime < retryInterval * 2 ? lastRetryTime + retryInterval : now;
+                break;
+            }
+        }
+    }
+
+    void closeNow() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        worker.unregister(this);
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Close channel failed: {}", e.getMessage());
+        }
+        if (session != null) {
+            // Unacked qos 1 msgs of a persistent session are sent again on the next connection
+            if (!session.clean) {
+                for (Inflight item : inflight.values()) {
+                    session.offer(item.message, 1, item.retainFlag);
+                }
+                Inflight item;
+                while ((item = waiting.poll()) != null) {
+                    session.offer(item.message, 1, item.retainFlag);
+                }
+            }
+            router.detach(session, this);
+            HubConnection current = session.connection;
+            if (current != null && current != this) {
+                session.resume(current);
+            }
+        }
+        inflight.clear();
+        admitted.clear();
+        waiting.clear();
+        if (will != null) {
+            router.publish(will);
+            will = null;
+        }
+    }
+
+    private void handle(MqttCodec.Packet packet) throws IOException {
+        if (session == null && packet.type != MqttCodec.CONNECT) {
+            throw new ProtocolException("First packet is not CONNECT but " + packet.type);
+        }
+        switch (packet.type) {
+            case MqttCodec.CONNECT:
+                if (session != null) {
+                    throw new ProtocolException("CONNECT sent twice");
+                }
+                onConnect(packet);
+                break;
+            case MqttCodec.PUBLISH:
+                onPublish(packet);
+                break;
+            case MqttCodec.PUBACK:
+                onPubAck(packet);
+                break;
+            case MqttCodec.SUBSCRIBE:
+                onSubscribe(packet);
+                break;
+            case MqttCodec.UNSUBSCRIBE:
+                onUnsubscribe(packet);
+                break;
+            case MqttCodec.PINGREQ:
+                writeTransport(MqttCodec.pingresp(), true);
+                break;
+            case MqttCodec.DISCONNECT:
+                will = null;
+                closeNow();
+                break;
+            default:
+                throw new ProtocolException("Packet type " + packet.type + " is not supported");
+        }
+    }
+
+    private void onConnect(MqttCodec.Packet packet) throws IOException {
+        MqttCodec.Reader reader = new MqttCodec.Reader(packet.body);
+        String protocol = reader.readString();
+        int level = reader.readByte();
+        int flags = reader.readByte();
+        int keepAlive = reader.readShort();
+        String id = reader.readString();
+        String willTopic = null;
+        byte[] willPayload = null;
+        if ((flags & 0x04) != 0) {
+            willTopic = reader.readString();
+            willPayload = reader.readBinary();
+        }
+        String username = (flags & 0x80) != 0 ? reader.readString() : null;
+        byte[] password = (flags & 0x40) != 0 ? reader.readBinary() : null;
+        boolean clean = (flags & 0x02) != 0;
+        int willQos = (flags >> 3) & 0x03;
+
+        if (!(PROTOCOL_V311.equals(protocol) && level == LEVEL_V311)
+                && !(PROTOCOL_V31.equals(protocol) && level == LEVEL_V31)) {
+            refuse(MqttCodec.CONNACK_UNACCEPTABLE_PROTOCOL, String.format("protocol %s %d", protocol, level));
+            return;
+        }
+        HubConfig.Principal authorized = router.authenticate(username, password, tls != null && tls.isCertified());
+        if (authorized == null) {
+            refuse(MqttCodec.CONNACK_BAD_CREDENTIALS, "bad credentials of " + username);
+            return;
+        }
+        if (!CLIENT_ID_PATTERN.matcher(id).matches() || id.isEmpty() && !clean) {
+            refuse(MqttCodec.CONNACK_IDENTIFIER_REJECTED, "invalid client id " + id);
+            return;
+        }
+        if (willTopic != null && (willQos > 1 || !HubRouter.isValidTopic(willTopic, false)
+                || !authorized.canPublish(willTopic))) {
+            refuse(MqttCodec.CONNACK_NOT_AUTHORIZED, "will topic not permitted " + willTopic);
+            return;
+        }
+
+        clientId = id.isEmpty() ? "hub-generated-" + GENERATED_ID.incrementAndGet() : id;
+        principal = authorized;
+        keepAliveMillis = keepAlive * 1500L;
+        will = willTopic == null ? null : new HubMessage(willTopic, willPayload, willQos, (flags & 0x20) != 0);
+        session = router.attach(clientId, clean, this);
+        writeTransport(MqttCodec.connack(session.present && level == LEVEL_V311, MqttCodec.CONNACK_ACCEPTED), true);
+        session.resume(this);
+    }
+
+    private void onPublish(MqttCodec.Packet packet) throws IOException {
+        int qos = (packet.flags >> 1) & 0x03;
+        MqttCodec.Reader reader = new MqttCodec.Reader(packet.body);
+        String topic = reader.readString();
+        int packetId = qos > 0 ? reader.readShort() : 0;
+        byte[] payload = reader.readRest();
+        if (qos > 1) {
+            throw new ProtocolException("Qos " + qos + " is not supported");
+        }
+        int maxLength = router.getConfig().getMaxMessageLength();
+        if (payload.length > maxLength) {
+            throw new ProtocolException(String.format("Msg length %d exceeds %d", payload.length, maxLength));
+        }
+        if (!HubRouter.isValidTopic(topic, false) || !principal.canPublish(topic)) {
+            throw new ProtocolException(String.format("Publishing to topic [%s] is not permitted", topic));
+        }
+        router.publish(new HubMessage(topic, payload, qos, (packet.flags & 0x01) != 0));
+        if (qos == 1) {
+            writeTransport(MqttCodec.puback(packetId), true);
+        }
+    }
+
+    private void onSubscribe(MqttCodec.Packet packet) throws IOException {
+        MqttCodec.Reader reader = new MqttCodec.Reader(packet.body);
+        int packetId = reader.readShort();
+        List<String> filters = new ArrayList<String>();
+        List<Byte> codes = new ArrayList<Byte>();
+        while (reader.hasRemaining()) {
+            String filter = reader.readString();
+            int qos = reader.readByte() & 0x03;
+            int code = qos <= 1 && HubRouter.isValidTopic(filter, true) && principal.canSubscribe(filter)
+                    ? router.subscribe(session, filter, qos) : MqttCodec.SUBACK_FAILURE;
+            filters.add(filter);
+            codes.add((byte) code);
+        }
+        byte[] result = new byte[codes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = codes.get(i);
+        }
+        writeTransport(MqttCodec.suback(packetId, result), true);
+        for (int i = 0; i < result.length; i++) {
+            if ((result[i] & 0xFF) != MqttCodec.SUBACK_FAILURE) {
+                router.deliverRetained(session, filters.get(i), result[i]);
+            }
+        }
+    }
+
+    private void onUnsubscribe(MqttCodec.Packet packet) throws IOException {
+        MqttCodec.Reader reader = new MqttCodec.Reader(packet.body);
+        int packetId = reader.readShort();
+        while (reader.hasRemaining()) {
+            router.unsubscribe(session, reader.readString());
+        }
+        writeTransport(MqttCodec.unsuback(packetId), true);
+    }
+
+    private void refuse(int code, String reason) throws IOException {
+        log.info("Refuse connection from {}: {}", remoteAddress, reason);
+        writeTransport(MqttCodec.connack(false, code), true);
+        writeNet();
+        closeNow();
+    }
+
+    private void fail(IOException e) {
+        if (e instanceof EOFException) {
+            log.debug("Client {} from {} closed: {}", clientId, remoteAddress, e.getMessage());
+        } else {
+            log.info("Close client {} from {}: {}", clientId, remoteAddress, e.getMessage());
+        }
+        try {
+            // Best effort for websocket close frames and http errors
+            writeReplies();
+            writeNet();
+        } catch (IOException ignored) {
+            log.debug("Write before close failed: {}", ignored.getMessage());
+        }
+        closeNow();
+    }
+
+    /**
+     * @return  mqtt bytes read so far, in write mode
+     */
+    private ByteBuffer readTransport() throws IOException {
+        ByteBuffer plain = netIn;
+        if (tls != null) {
+            netIn.flip();
+            try {
+                netOut = tls.unwrap(netIn, netOut);
+            } finally {
+                netIn.compact();
+            }
+            plain = tls.getAppIn();
+        }
+        if (webSocket == null) {
+            return plain;
+        }
+        plain.flip();
+        try {
+            webSocketIn = webSocket.decode(plain, webSocketIn);
+        } finally {
+            plain.compact();
+            writeReplies();
+        }
+        return webSocketIn;
+    }
+
+    private void send(byte[] packet) {
+        outbound.offer(packet);
+        pendingCount.incrementAndGet();
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            worker.execute(flushTask);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        if (closed) {
+            return;
+        }
+        admitWaiting();
+        try {
+            while (true) {
+                byte[] packet;
+                while (netOut.position() < MAX_PENDING_BYTES && (packet = outbound.poll()) != null) {
+                    pendingCount.decrementAndGet();
+                    writeTransport(packet, true);
+                }
+                // Stop once the socket is full, the write interest brings us back
+                if (!writeNet() || outbound.isEmpty()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void writeReplies() throws IOException {
+        if (webSocket == null) {
+            return;
+        }
+        byte[] reply;
+        while ((reply = webSocket.pollReply()) != null) {
+            writeTransport(reply, false);
+        }
+    }
+
+    private void writeTransport(byte[] data, boolean packet) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(packet && webSocket != null ? WebSocketCodec.frame(data) : data);
+        netOut = tls != null ? tls.wrap(src, netOut) : ByteBuffers.append(netOut, src);
+    }
+
+    /**
+     * @return  true if everything is written
+     */
+    private boolean writeNet() throws IOException {
+        netOut.flip();
+        try {
+            while (netOut.hasRemaining()) {
+                if (channel.write(netOut) == 0) {
+                    break;
+                }
+            }
+        } finally {
+            netOut.compact();
+        }
+        boolean drained = netOut.position() == 0;
+        if (drained && netOut.capacity() > SHRINK_THRESHOLD) {
+            netOut = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        if (key != null && key.isValid() && writeInterest == drained) {
+            writeInterest = !drained;
+            key.interestOps(drained ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+        return drained;
+    }
+
+    /**
+     * Move waiting qos 1 msgs into the inflight window as far as it has room
+     */
+    private void admitWaiting() {
+        int window = router.getConfig().getEgressQos1BufferSize() + QOS1_WINDOW_EXTRA;
+        Inflight item;
+        while (admitted.size() < window && (item = waiting.poll()) != null) {
+            pendingCount.decrementAndGet();
+            int packetId = nextPacketId();
+            item.packet = MqttCodec.publish(item.message.topic, item.message.payload, 1, item.retainFlag, false,
+                    packetId);
+            item.sendTime = System.currentTimeMillis();
+            inflight.put(packetId, item);
+            admitted.offer(item);
+            outbound.offer(item.packet);
+            pendingCount.incrementAndGet();
+        }
+    }
+
+    private void onPubAck(MqttCodec.Packet packet) throws ProtocolException {
+        Inflight item = inflight.remove(new MqttCodec.Reader(packet.body).readShort());
+        if (item == null) {
+            return;
+        }
+        item.acked = true;
+        while (!admitted.isEmpty() && admitted.peek().acked) {
+            admitted.poll();
+        }
+    }
+
+    private int nextPacketId() {
+        do {
+            lastPacketId = (lastPacketId + 1) & 0xFFFF;
+        } while (lastPacketId == 0 || inflight.containsKey(lastPacketId));
+        return lastPacketId;
+    }
+
+    /**
+     * Qos 1 msg waiting for the inflight window, or sent and not acked yet
+     */
+    private static class Inflight {
+        final HubMessage message;
+        final boolean retainFlag;
+        byte[] packet;
+        long sendTime;
+        boolean acked;
+
+        Inflight(HubMessage message, boolean retainFlag) {
+            this.message = message;
+            this.retainFlag = retainFlag;
+        }
+    }
+}
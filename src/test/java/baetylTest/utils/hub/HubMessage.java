@@ -0,0 +1,32 @@
+package baetylTest.utils.hub;
+
+/**
+ * Msg routed by the embedded hub, immutable and shared by every subscriber it is delivered to
+ */
+class HubMessage {
+
+    final String topic;
+    final byte[] payload;
+    final int qos;
+    final boolean retain;
+    private volatile byte[] encodedQos0;
+
+    HubMessage(String topic, byte[] payload, int qos, boolean retain) {
+        this.topic = topic;
+        this.payload = payload;
+        this.qos = qos;
+        this.retain = retain;
+    }
+
+    /**
+     * Qos 0 publish packet without retain flag, encoded once for all subscribers
+     */
+    byte[] encodeQos0() {
+        byte[] encoded = encodedQos0;
+        if (encoded == null) {
+            encoded = MqttCodec.publish(topic, payload, 0, false, false, 0);
+            encodedQos0 = encoded;
+        }
+        return encoded;
+    }
+}
@@ -0,0 +1,213 @@
+package baetylTest.utils.hub;
+
+import baetylTest.utils.TopicMatcher;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sessions, subscriptions, retained msgs and subscription routes of the embedded hub, shared by all workers
+ */
+@Slf4j
+class HubRouter {
+
+    static final int MAX_TOPIC_LENGTH = 255;
+    static final int MAX_TOPIC_LEVELS = 9;
+    private static final int MAX_ROUTE_DEPTH = 8;
+    private static final String SYSTEM_TOPIC_PREFIX = "$";
+    private static final char NULL_CHAR = '\u0000';
+
+    private final HubConfig config;
+    private final ConcurrentMap<String, HubSession> sessions = new ConcurrentHashMap<String, HubSession>();
+    private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+    private final ConcurrentMap<String, HubMessage> retained = new ConcurrentHashMap<String, HubMessage>();
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    HubRouter(HubConfig config) {
+        this.config = config;
+    }
+
+    HubConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @param certified  whether the client presented a trusted cert
+     * @return  principal, null if authentication failed
+     */
+    HubConfig.Principal authenticate(String username, byte[] password, boolean certified) {
+        HubConfig.Principal principal = username == null ? null : config.getPrincipals().get(username);
+        if (principal == null) {
+            return null;
+        }
+        if (principal.getPassword() == null) {
+            return certified ? principal : null;
+        }
+        return password != null && principal.getPassword().equals(new String(password, MqttCodec.UTF8))
+                ? principal : null;
+    }
+
+    /**
+     * Bind connection to the session of clientId, taking it over from the previous connection if any
+     */
+    HubSession attach(String clientId, boolean clean, HubConnection connection) {
+        HubConnection previous = null;
+        HubSession session;
+        synchronized (sessions) {
+            session = sessions.get(clientId);
+            if (session != null) {
+                previous = session.connection;
+                session.connection = null;
+                if (clean || session.clean) {
+                    removeSubscriptions(session);
+                    session = null;
+                }
+            }
+            boolean present = session != null;
+            if (session == null) {
+                session = new HubSession(clientId, clean);
+                sessions.put(clientId, session);
+            }
+            session.present = present;
+            session.connection = connection;
+        }
+        if (previous != null) {
+            log.info("Client {} is taken over by a new connection", clientId);
+            previous.close();
+        }
+        return session;
+    }
+
+    /**
+     * Unbind connection from its session, the session is dropped if clean
+     */
+    void detach(HubSession session, HubConnection connection) {
+        synchronized (sessions) {
+            if (session.connection != connection) {
+                return;
+            }
+            session.connection = null;
+            if (session.clean) {
+                removeSubscriptions(session);
+                sessions.remove(session.clientId, session);
+            }
+        }
+    }
+
+    int subscribe(HubSession session, String filter, int qos) {
+        session.subscriptions.put(filter, qos);
+        subscriptions.add(filter, session, qos);
+        return qos;
+    }
+
+    void unsubscribe(HubSession session, String filter) {
+        if (session.subscriptions.remove(filter) != null) {
+            subscriptions.remove(filter, session);
+        }
+    }
+
+    /**
+     * Send retained msgs matching a new subscription
+     */
+    void deliverRetained(HubSession session, String filter, int qos) {
+        for (HubMessage message : retained.values()) {
+            if (TopicMatcher.matches(filter, message.topic)) {
+                deliver(session, message, Math.min(qos, message.qos), true);
+            }
+        }
+    }
+
+    /**
+     * Deliver msg published by a client to subscribers and forward it by matching subscription routes
+     */
+    void publish(HubMessage message) {
+        receivedCount.incrementAndGet();
+        if (message.retain) {
+            if (message.payload.length == 0) {
+                retained.remove(message.topic);
+            } else {
+                retained.put(message.topic, message);
+            }
+        }
+        route(message, 0);
+    }
+
+    private void route(HubMessage message, int depth) {
+        for (Map.Entry<HubSession, Integer> entry : subscriptions.match(message.topic).entrySet()) {
+            deliver(entry.getKey(), message, Math.min(message.qos, entry.getValue()), false);
+        }
+        for (HubConfig.Route route : config.getRoutes()) {
+            if (!TopicMatcher.matches(route.getSourceTopic(), message.topic)) {
+                continue;
+            }
+            if (depth >= MAX_ROUTE_DEPTH) {
+                log.warn("Route depth exceeds {} at topic {}, msg dropped", MAX_ROUTE_DEPTH, message.topic);
+                droppedCount.incrementAndGet();
+                return;
+            }
+            // Qos is migrated to the lowest of the msg, the source and the target
+            int qos = Math.min(message.qos, Math.min(route.getSourceQos(), route.getTargetQos()));
+            route(new HubMessage(route.getTargetTopic(), message.payload, qos, false), depth + 1);
+        }
+    }
+
+    private void deliver(HubSession session, HubMessage message, int qos, boolean retainFlag) {
+        HubConnection connection = session.connection;
+        if (connection != null) {
+            if (connection.deliver(message, qos, retainFlag)) {
+                deliveredCount.incrementAndGet();
+            } else {
+                droppedCount.incrementAndGet();
+            }
+        } else if (!session.clean && qos > 0) {
+            if (!session.offer(message, qos, retainFlag)) {
+                droppedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private void removeSubscriptions(HubSession session) {
+        for (String filter : session.subscriptions.keySet()) {
+            subscriptions.remove(filter, session);
+        }
+        session.subscriptions.clear();
+    }
+
+    /**
+     * Check topic name or filter against the limits of baetyl hub
+     */
+    static boolean isValidTopic(String topic, boolean filter) {
+        if (topic.isEmpty() || topic.startsWith(SYSTEM_TOPIC_PREFIX) || topic.indexOf(NULL_CHAR) >= 0
+                || topic.getBytes(MqttCodec.UTF8).length > MAX_TOPIC_LENGTH
+                || topic.split(TopicMatcher.LEVEL_SEPARATOR, -1).length > MAX_TOPIC_LEVELS) {
+            return false;
+        }
+        return filter ? TopicMatcher.isValidFilter(topic) : !TopicMatcher.isWildcard(topic);
+    }
+
+    int getSessionCount() {
+        return sessions.size();
+    }
+
+    int getFilterCount() {
+        return subscriptions.getFilterCount();
+    }
+
+    long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
@@ -0,0 +1,68 @@
+package baetylTest.utils.hub;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mqtt session of a client id, kept after disconnect unless clean session is set
+ */
+class HubSession {
+
+    /**
+     * Qos 1 msgs kept for an offline session, the oldest ones are dropped beyond it
+     */
+    static final int MAX_OFFLINE_MESSAGES = 10000;
+
+    final String clientId;
+    final boolean clean;
+    final ConcurrentMap<String, Integer> subscriptions = new ConcurrentHashMap<String, Integer>();
+    volatile HubConnection connection;
+    volatile boolean present;
+
+    private final ConcurrentLinkedQueue<Offline> offline = new ConcurrentLinkedQueue<Offline>();
+    private final AtomicInteger offlineCount = new AtomicInteger();
+
+    HubSession(String clientId, boolean clean) {
+        this.clientId = clientId;
+        this.clean = clean;
+    }
+
+    /**
+     * Keep a msg until the client connects again
+     *
+     * @return  false if an old msg was dropped for it
+     */
+    boolean offer(HubMessage message, int qos, boolean retainFlag) {
+        offline.offer(new Offline(message, qos, retainFlag));
+        if (offlineCount.incrementAndGet() > MAX_OFFLINE_MESSAGES && offline.poll() != null) {
+            offlineCount.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Deliver the msgs kept while offline to connection
+     */
+    void resume(HubConnection connection) {
+        Offline item;
+        while ((item = offline.poll()) != null) {
+            offlineCount.decrementAndGet();
+            connection.deliver(item.message, item.qos, item.retainFlag);
+        }
+    }
+
+    private static class Offline {
+        final HubMessage message;
+        final int qos;
+        final boolean retainFlag;
+
+        Offline(HubMessage message, int qos, boolean retainFlag) {
+            this.message = message;
+            this.qos = qos;
+            this.retainFlag = retainFlag;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package baetylTest.utils.hub;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Selector thread owning a share of the hub connections. Everything touching a connection's socket or
+ * buffers runs here, other threads hand work over with {@link #execute(Runnable)}.
+ */
+@Slf4j
+class HubWorker implements Runnable {
+
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final Set<HubConnection> connections = new HashSet<HubConnection>();
+    private volatile boolean running = true;
+
+    HubWorker(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() throws InterruptedException {
+        running = false;
+        selector.wakeup();
+        thread.join(SWEEP_INTERVAL_MILLIS * 5);
+    }
+
+    boolean inWorkerThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    void execute(Runnable task) {
+        tasks.offer(task);
+        selector.wakeup();
+    }
+
+    void register(final HubConnection connection) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connection.setKey(connection.getChannel().register(selector, SelectionKey.OP_READ, connection));
+                    connections.add(connection);
+                } catch (IOException e) {
+                    log.warn("Register connection failed: {}", e.getMessage());
+                    connection.closeNow();
+                }
+            }
+        });
+    }
+
+    void unregister(HubConnection connection) {
+        connections.remove(connection);
+    }
+
+    int getConnectionCount() {
+        return connections.size();
+    }
+
+    @Override
+    public void run() {
+        long lastSweepTime = System.currentTimeMillis();
+        while (running) {
+            try {
+                selector.select(SWEEP_INTERVAL_MILLIS);
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    HubConnection connection = (HubConnection) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                }
+                runTasks();
+
+                long now = System.currentTimeMillis();
+                if (now - lastSweepTime >= SWEEP_INTERVAL_MILLIS) {
+                    lastSweepTime = now;
+                    for (HubConnection connection : new ArrayList<HubConnection>(connections)) {
+                        connection.sweep(now);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Hub worker loop failed", e);
+            }
+        }
+        for (HubConnection connection : new ArrayList<HubConnection>(connections)) {
+            connection.closeNow();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.warn("Close selector failed: {}", e.getMessage());
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Hub worker task failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package baetylTest.utils.hub;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Mqtt 3.1.1 packet decoding and encoding of the embedded hub
+ */
+class MqttCodec {
+
+    static final int CONNECT = 1;
+    static final int CONNACK = 2;
+    static final int PUBLISH = 3;
+    static final int PUBACK = 4;
+    static final int PUBREC = 5;
+    static final int PUBREL = 6;
+    static final int PUBCOMP = 7;
+    static final int SUBSCRIBE = 8;
+    static final int SUBACK = 9;
+    static final int UNSUBSCRIBE = 10;
+    static final int UNSUBACK = 11;
+    static final int PINGREQ = 12;
+    static final int PINGRESP = 13;
+    static final int DISCONNECT = 14;
+
+    static final int CONNACK_ACCEPTED = 0;
+    static final int CONNACK_UNACCEPTABLE_PROTOCOL = 1;
+    static final int CONNACK_IDENTIFIER_REJECTED = 2;
+    static final int CONNACK_BAD_CREDENTIALS = 4;
+    static final int CONNACK_NOT_AUTHORIZED = 5;
+    static final int SUBACK_FAILURE = 0x80;
+
+    static final Charset UTF8 = Charset.forName("utf-8");
+
+    private static final int MAX_LENGTH_BYTES = 4;
+
+    /**
+     * Fixed header and body of a decoded packet
+     */
+    static class Packet {
+        final int type;
+        final int flags;
+        final byte[] body;
+
+        Packet(int type, int flags, byte[] body) {
+            this.type = type;
+            this.flags = flags;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Decode one packet from buffer in read mode
+     *
+     * @param maxLength  max remaining length accepted
+     * @return  packet and position moved past it, or null and position unchanged if incomplete
+     */
+    static Packet decode(ByteBuffer buffer, int maxLength) throws ProtocolException {
+        int start = buffer.position();
+        if (buffer.remaining() < 2) {
+            return null;
+        }
+        int header = buffer.get() & 0xFF;
+        if (!isValidHeader(header >> 4, header & 0x0F)) {
+            throw new ProtocolException(String.format("Malformed fixed header 0x%02X", header));
+        }
+        int length = 0;
+        int multiplier = 1;
+        for (int i = 0; ; i++) {
+            if (i == MAX_LENGTH_BYTES) {
+                throw new ProtocolException("Malformed remaining length");
+            }
+            if (!buffer.hasRemaining()) {
+                buffer.position(start);
+                return null;
+            }
+            int digit = buffer.get() & 0xFF;
+            length += (digit & 0x7F) * multiplier;
+            multiplier <<= 7;
+            if ((digit & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length > maxLength) {
+            throw new ProtocolException(String.format("Packet length %d exceeds %d", length, maxLength));
+        }
+        if (buffer.remaining() < length) {
+            buffer.position(start);
+            return null;
+        }
+        byte[] body = new byte[length];
+        buffer.get(body);
+        return new Packet(header >> 4, header & 0x0F, body);
+    }
+
+    /**
+     * Flags are fixed for every packet type but PUBLISH, which also fails fast on non mqtt clients like tls
+     */
+    private static boolean isValidHeader(int type, int flags) {
+        if (type == PUBLISH) {
+            return true;
+        }
+        if (type == PUBREL || type == SUBSCRIBE || type == UNSUBSCRIBE) {
+            return flags == 0x02;
+        }
+        return type >= CONNECT && type <= DISCONNECT && flags == 0;
+    }
+
+    static byte[] connack(boolean sessionPresent, int code) {
+        return new byte[]{(byte) (CONNACK << 4), 2, (byte) (sessionPresent ? 1 : 0), (byte) code};
+    }
+
+    static byte[] publish(String topic, byte[] payload, int qos, boolean retain, boolean dup, int packetId) {
+        byte[] topicBytes = topic.getBytes(UTF8);
+        int length = 2 + topicBytes.length + (qos > 0 ? 2 : 0) + payload.length;
+        int flags = (dup ? 0x08 : 0) | (qos << 1) | (retain ? 1 : 0);
+        ByteBuffer buffer = header(PUBLISH << 4 | flags, length);
+        buffer.putShort((short) topicBytes.length).put(topicBytes);
+        if (qos > 0) {
+            buffer.putShort((short) packetId);
+        }
+        return buffer.put(payload).array();
+    }
+
+    /**
+     * Set the dup flag of an encoded publish packet in place
+     */
+    static void setDup(byte[] publish) {
+        publish[0] |= 0x08;
+    }
+
+    static byte[] puback(int packetId) {
+        return ack(PUBACK << 4, packetId);
+    }
+
+    static byte[] suback(int packetId, byte[] codes) {
+        return header(SUBACK << 4, 2 + codes.length).putShort((short) packetId).put(codes).array();
+    }
+
+    static byte[] unsuback(int packetId) {
+        return ack(UNSUBACK << 4, packetId);
+    }
+
+    static byte[] pingresp() {
+        return new byte[]{(byte) (PINGRESP << 4), 0};
+    }
+
+    private static byte[] ack(int header, int packetId) {
+        return new byte[]{(byte) header, 2, (byte) (packetId >> 8), (byte) packetId};
+    }
+
+    private static ByteBuffer header(int header, int length) {
+        ByteArrayOutputStream lengthBytes = new ByteArrayOutputStream(MAX_LENGTH_BYTES);
+        int value = length;
+        do {
+            int digit = value & 0x7F;
+            value >>= 7;
+            lengthBytes.write(value > 0 ? digit | 0x80 : digit);
+        } while (value > 0);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + lengthBytes.size() + length);
+        return buffer.put((byte) header).put(lengthBytes.toByteArray());
+    }
+
+    /**
+     * Sequential reader of a packet body
+     */
+    static class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        boolean hasRemaining() {
+            return position < data.length;
+        }
+
+        int readByte() throws ProtocolException {
+            require(1);
+            return data[position++] & 0xFF;
+        }
+
+        int readShort() throws ProtocolException {
+            return readByte() << 8 | readByte();
+        }
+
+        byte[] readBinary() throws ProtocolException {
+            int length = readShort();
+            require(length);
+            byte[] result = new byte[length];
+            System.arraycopy(data, position, result, 0, length);
+            position += length;
+            return result;
+        }
+
+        String readString() throws ProtocolException {
+            return new String(readBinary(), UTF8);
+        }
+
+        byte[] readRest() {
+            byte[] result = new byte[data.length - position];
+            System.arraycopy(data, position, result, 0, result.length);
+            position = data.length;
+            return result;
+        }
+
+        private void require(int length) throws ProtocolException {
+            if (data.length - position < length) {
+                throw new ProtocolException("Packet is truncated");
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package baetylTest.utils.hub;
+
+import baetylTest.utils.TopicMatcher;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Subscribers by topic filter. Filters without wildcards are looked up directly, only wildcard filters
+ * are matched one by one, so a publish costs O(wildcard filters) whatever the number of exact ones.
+ *
+ * Changes are serialized, matching is lock-free and may miss a subscription being added concurrently.
+ */
+class SubscriptionIndex {
+
+    private final ConcurrentMap<String, ConcurrentMap<HubSession, Integer>> exact =
+            new ConcurrentHashMap<String, ConcurrentMap<HubSession, Integer>>();
+    private final ConcurrentMap<String, ConcurrentMap<HubSession, Integer>> wildcard =
+            new ConcurrentHashMap<String, ConcurrentMap<HubSession, Integer>>();
+
+    synchronized void add(String filter, HubSession session, int qos) {
+        ConcurrentMap<String, ConcurrentMap<HubSession, Integer>> index = indexOf(filter);
+        ConcurrentMap<HubSession, Integer> subscribers = index.get(filter);
+        if (subscribers == null) {
+            subscribers = new ConcurrentHashMap<HubSession, Integer>();
+            index.put(filter, subscribers);
+        }
+        subscribers.put(session, qos);
+    }
+
+    synchronized void remove(String filter, HubSession session) {
+        ConcurrentMap<String, ConcurrentMap<HubSession, Integer>> index = indexOf(filter);
+        ConcurrentMap<HubSession, Integer> subscribers = index.get(filter);
+        if (subscribers != null) {
+            subscribers.remove(session);
+            if (subscribers.isEmpty()) {
+                index.remove(filter);
+            }
+        }
+    }
+
+    /**
+     * @return  sessions subscribed to topic with the max qos of their matching filters
+     */
+    Map<HubSession, Integer> match(String topic) {
+        Map<HubSession, Integer> result = new HashMap<HubSession, Integer>();
+        merge(exact.get(topic), result);
+        for (Map.Entry<String, ConcurrentMap<HubSession, Integer>> entry : wildcard.entrySet()) {
+            if (TopicMatcher.matches(entry.getKey(), topic)) {
+                merge(entry.getValue(), result);
+            }
+        }
+        return result;
+    }
+
+    int getFilterCount() {
+        return exact.size() + wildcard.size();
+    }
+
+    private ConcurrentMap<String, ConcurrentMap<HubSession, Integer>> indexOf(String filter) {
+        return TopicMatcher.isWildcard(filter) ? wildcard : exact;
+    }
+
+    private static void merge(Map<HubSession, Integer> subscribers, Map<HubSession, Integer> result) {
+        if (subscribers == null) {
+            return;
+        }
+        for (Map.Entry<HubSession, Integer> entry : subscribers.entrySet()) {
+            Integer qos = result.get(entry.getKey());
+            if (qos == null || qos < entry.getValue()) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
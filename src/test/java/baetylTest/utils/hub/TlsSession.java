@@ -0,0 +1,109 @@
+package baetylTest.utils.hub;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Server side tls of a non-blocking hub connection, driven by its worker thread only
+ */
+class TlsSession {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine engine;
+    private ByteBuffer appIn;
+
+    TlsSession(SSLContext context) {
+        engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        // Principals without password authenticate by client cert, others connect with one way tls
+        engine.setWantClientAuth(true);
+        appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    /**
+     * Decrypt netIn in read mode into the app buffer, records the handshake has to send are appended to netOut
+     *
+     * @return  netOut, grown if needed
+     */
+    ByteBuffer unwrap(ByteBuffer netIn, ByteBuffer netOut) throws IOException {
+        while (true) {
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runTasks();
+            } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                netOut = wrap(EMPTY, netOut);
+            } else if (!netIn.hasRemaining()) {
+                return netOut;
+            } else {
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        return netOut;
+                    case BUFFER_OVERFLOW:
+                        appIn = ByteBuffers.ensure(appIn, engine.getSession().getApplicationBufferSize());
+                        break;
+                    case CLOSED:
+                        // App data of the records before close_notify is still in appIn, see isInboundDone
+                        return netOut;
+                    default:
+                        if (result.bytesConsumed() == 0 && result.bytesProduced() == 0
+                                && result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                            return netOut;
+                        }
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Encrypt src in read mode and append the records to netOut
+     *
+     * @return  netOut, grown if needed
+     */
+    ByteBuffer wrap(ByteBuffer src, ByteBuffer netOut) throws IOException {
+        do {
+            netOut = ByteBuffers.ensure(netOut, engine.getSession().getPacketBufferSize());
+            SSLEngineResult result = engine.wrap(src, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new EOFException("Tls closed");
+            }
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runTasks();
+            }
+        } while (src.hasRemaining());
+        return netOut;
+    }
+
+    /**
+     * @return  decrypted data in write mode, consumed by the caller
+     */
+    ByteBuffer getAppIn() {
+        return appIn;
+    }
+
+    boolean isInboundDone() {
+        return engine.isInboundDone();
+    }
+
+    boolean isCertified() {
+        try {
+            return engine.getSession().getPeerCertificates().length > 0;
+        } catch (SSLPeerUnverifiedException e) {
+            return false;
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+}
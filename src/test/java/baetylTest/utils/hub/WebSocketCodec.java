@@ -0,0 +1,211 @@
+package baetylTest.utils.hub;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Server side websocket of a hub connection: http upgrade, then mqtt bytes carried in binary frames.
+ * Driven by the worker thread of the connection only.
+ */
+class WebSocketCodec {
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final String[] SUB_PROTOCOLS = {"mqtt", "mqttv3.1"};
+    private static final Charset ASCII = Charset.forName("ISO-8859-1");
+    private static final String HEADER_END = "\r\n\r\n";
+    private static final String LINE_END = "\r\n";
+    private static final int MAX_HANDSHAKE_LENGTH = 8192;
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+    private static final int FIN = 0x80;
+    private static final int MASKED = 0x80;
+
+    private final String path;
+    private final List<byte[]> replies = new ArrayList<byte[]>();
+    private boolean open;
+    private boolean closed;
+
+    WebSocketCodec(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Consume the upgrade request and frames of in (read mode), the mqtt bytes are appended to out
+     *
+     * @return  out, grown if needed
+     */
+    ByteBuffer decode(ByteBuffer in, ByteBuffer out) throws IOException {
+        if (!open && !handshake(in)) {
+            return out;
+        }
+        while (!closed && in.remaining() >= 2) {
+            int start = in.position();
+            int first = in.get() & 0xFF;
+            int second = in.get() & 0xFF;
+            boolean masked = (second & MASKED) != 0;
+            long length = second & 0x7F;
+            int headerLength = (length == 126 ? 2 : length == 127 ? 8 : 0) + (masked ? 4 : 0);
+            if (in.remaining() < headerLength) {
+                in.position(start);
+                break;
+            }
+            if (length == 126) {
+                length = in.getShort() & 0xFFFF;
+            } else if (length == 127) {
+                length = in.getLong();
+            }
+            if (length < 0 || length > MAX_FRAME_LENGTH) {
+                throw new ProtocolException("Websocket frame length " + length + " is not supported");
+            }
+            byte[] mask = new byte[4];
+            if (masked) {
+                in.get(mask);
+            }
+            if (in.remaining() < length) {
+                in.position(start);
+                break;
+            }
+            byte[] data = new byte[(int) length];
+            in.get(data);
+            if (masked) {
+                for (int i = 0; i < data.length; i++) {
+                    data[i] ^= mask[i & 3];
+                }
+            }
+            switch (first & 0x0F) {
+                case OPCODE_CONTINUATION:
+                case OPCODE_TEXT:
+                case OPCODE_BINARY:
+                    out = ByteBuffers.ensure(out, data.length);
+                    out.put(data);
+                    break;
+                case OPCODE_PING:
+                    replies.add(frame(OPCODE_PONG, data));
+                    break;
+                case OPCODE_PONG:
+                    break;
+                case OPCODE_CLOSE:
+                    // Keep the mqtt bytes of earlier frames, the caller closes after handling them
+                    replies.add(frame(OPCODE_CLOSE, new byte[0]));
+                    closed = true;
+                    break;
+                default:
+                    throw new ProtocolException("Unknown websocket opcode " + (first & 0x0F));
+            }
+        }
+        return out;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return  next handshake response or control frame to send as is, null if none
+     */
+    byte[] pollReply() {
+        return replies.isEmpty() ? null : replies.remove(0);
+    }
+
+    /**
+     * Wrap an mqtt packet into a binary frame, server frames are not masked
+     */
+    static byte[] frame(byte[] data) {
+        return frame(OPCODE_BINARY, data);
+    }
+
+    private static byte[] frame(int opcode, byte[] data) {
+        int headerLength = data.length < 126 ? 2 : data.length <= 0xFFFF ? 4 : 10;
+        ByteBuffer buffer = ByteBuffer.allocate(headerLength + data.length);
+        buffer.put((byte) (FIN | opcode));
+        if (data.length < 126) {
+            buffer.put((byte) data.length);
+        } else if (data.length <= 0xFFFF) {
+            buffer.put((byte) 126).putShort((short) data.length);
+        } else {
+            buffer.put((byte) 127).putLong(data.length);
+        }
+        return buffer.put(data).array();
+    }
+
+    private boolean handshake(ByteBuffer in) throws IOException {
+        String received = new String(in.array(), in.arrayOffset() + in.position(), in.remaining(), ASCII);
+        int end = received.indexOf(HEADER_END);
+        if (end < 0) {
+            if (received.length() > MAX_HANDSHAKE_LENGTH) {
+                throw new ProtocolException("Websocket upgrade request is too long");
+            }
+            return false;
+        }
+        in.position(in.position() + end + HEADER_END.length());
+
+        String[] lines = received.substring(0, end).split(LINE_END);
+        String[] requestLine = lines[0].split(" ");
+        Map<String, String> headers = new HashMap<String, String>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+            }
+        }
+        String key = headers.get("sec-websocket-key");
+        if (requestLine.length < 2 || !"GET".equals(requestLine[0]) || key == null) {
+            replies.add("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n".getBytes(ASCII));
+            throw new ProtocolException("Not a websocket upgrade request: " + lines[0]);
+        }
+        String requestPath = requestLine[1].split("\\?")[0];
+        if (!path.equals(requestPath)) {
+            replies.add("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes(ASCII));
+            throw new ProtocolException("Unknown websocket path " + requestPath);
+        }
+
+        StringBuilder response = new StringBuilder("HTTP/1.1 101 Switching Protocols\r\n")
+                .append("Upgrade: websocket\r\n")
+                .append("Connection: Upgrade\r\n")
+                .append("Sec-WebSocket-Accept: ").append(accept(key)).append(LINE_END);
+        String protocol = selectProtocol(headers.get("sec-websocket-protocol"));
+        if (protocol != null) {
+            response.append("Sec-WebSocket-Protocol: ").append(protocol).append(LINE_END);
+        }
+        replies.add(response.append(LINE_END).toString().getBytes(ASCII));
+        open = true;
+        return true;
+    }
+
+    private static String selectProtocol(String offered) {
+        if (offered == null) {
+            return null;
+        }
+        for (String item : offered.split(",")) {
+            for (String protocol : SUB_PROTOCOLS) {
+                if (protocol.equalsIgnoreCase(item.trim())) {
+                    return item.trim();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String accept(String key) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(digest.digest((key + ACCEPT_GUID).getBytes(ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
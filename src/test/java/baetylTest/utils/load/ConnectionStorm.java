@@ -0,0 +1,147 @@
+package baetylTest.utils.load;
+
+import baetylTest.utils.client.MqttConnection;
+import baetylTest.utils.perf.LatencyRecorder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+/**
+ * Connection storm: many clients connecting at once or on a short ramp, as after a power cut.
+ *
+ * Connects are started asynchronously from one thread so the storm isn't limited by client threads, and
+ * the outcome of each one is collected from the paho listeners. By default every tls client gets an ssl context
+ * of its own before the storm starts, as sessions resumed from a shared context would hide the full handshake cost.
+ */
+@Slf4j
+public class ConnectionStorm {
+
+    public static final int NO_REASON_CODE = -1;
+
+    private final String listener;
+    private final double rampRate;
+    private final long timeoutSeconds;
+    private final TlsSessionMode tlsSessionMode;
+
+    public ConnectionStorm(String listener, double rampRate, long timeoutSeconds) {
+        this(listener, rampRate, timeoutSeconds, TlsSessionMode.FULL_HANDSHAKE);
+    }
+
+    /**
+     * @param listener        name of the listener in the report, e.g. the connection type
+     * @param rampRate        connects started per second, 0 starts them all at once
+     * @param timeoutSeconds  how long to wait for the last outcome
+     * @param tlsSessionMode  whether tls clients may resume sessions of each other
+     */
+    public ConnectionStorm(String listener, double rampRate, long timeoutSeconds, TlsSessionMode tlsSessionMode) {
+        this.listener = listener;
+        this.rampRate = rampRate;
+        this.timeoutSeconds = timeoutSeconds;
+        this.tlsSessionMode = tlsSessionMode;
+    }
+
+    /**
+     * Connect all clients, they stay connected for the caller to tear down
+     */
+    public StormReport run(List<MqttConnection> clients) throws Exception {
+        final StormReport report = new StormReport(listener);
+        report.setAttempted(clients.size());
+        report.setTlsSessionMode(prepareTls(clients));
+        final CountDownLatch done = new CountDownLatch(clients.size());
+        final LatencyRecorder handshake = new LatencyRecorder();
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicLong lastSuccess = new AtomicLong();
+        final long startTime = System.nanoTime();
+        long interval = rampRate <= 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / rampRate);
+        long next = startTime;
+
+        for (MqttConnection client : clients) {
+            if (interval > 0) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                next += interval;
+            }
+            final long connectTime = System.nanoTime();
+            try {
+                client.connectAsync(new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken asyncActionToken) {
+                        long now = System.nanoTime();
+                        handshake.recordNanos(now - connectTime);
+                        succeeded.incrementAndGet();
+                        long last;
+                        while ((last = lastSuccess.get()) < now && !lastSuccess.compareAndSet(last, now)) {
+                            // Another listener moved it meanwhile, try again
+                        }
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                        addFailure(report, exception);
+                        done.countDown();
+                    }
+                });
+            } catch (Exception e) {
+                addFailure(report, e);
+                done.countDown();
+            }
+        }
+
+        if (!done.await(timeoutSeconds, TimeUnit.SECONDS)) {
+            log.warn("Storm on {}: {} connects still pending after {} s", listener, done.getCount(), timeoutSeconds);
+        }
+        report.setSucceeded(succeeded.get());
+        synchronized (report) {
+            int failed = 0;
+            for (int count : report.getFailureCodes().values()) {
+                failed += count;
+            }
+            report.setFailed(failed);
+        }
+        report.setTimeToAllConnectedMillis(lastSuccess.get() == 0 ? 0
+                : TimeUnit.NANOSECONDS.toMillis(lastSuccess.get() - startTime));
+        report.setHandshake(handshake.snapshot());
+        log.info("Storm {}", report.summary());
+        return report;
+    }
+
+    /**
+     * Set up the ssl contexts outside of the measured connects
+     *
+     * @return  the mode the tls clients connect with, null if there are none
+     */
+    private TlsSessionMode prepareTls(List<MqttConnection> clients) throws Exception {
+        boolean anyTls = false;
+        for (MqttConnection client : clients) {
+            if (tlsSessionMode == TlsSessionMode.FULL_HANDSHAKE) {
+                anyTls |= client.useOwnTlsContext();
+            } else {
+                anyTls |= client.isTls() || client.isAuthCert();
+            }
+        }
+        return anyTls ? tlsSessionMode : null;
+    }
+
+    private static void addFailure(StormReport report, Throwable exception) {
+        int code = exception instanceof MqttException ? ((MqttException) exception).getReasonCode()
+                : NO_REASON_CODE;
+        synchronized (report) {
+            Map<Integer, Integer> codes = report.getFailureCodes();
+            Integer count = codes.get(code);
+            codes.put(code, count == null ? 1 : count + 1);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package baetylTest.utils.load;
+
+import baetylTest.utils.perf.LatencyRecorder;
+import baetylTest.utils.perf.LatencyStats;
+import baetylTest.utils.perf.LatencyType;
+import baetylTest.utils.perf.PayloadEnvelope;
+import baetylTest.utils.perf.SequenceTracker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * Callback of a fan-in subscriber on prefix/#, keeping streaming counters per publisher instead of the msgs.
+ *
+ * Publisher i sends to prefix/i with PayloadEnvelope sequence numbers 1, 2, ..., so the topic tells the stream
+ * and the envelope its position. Msgs of other topics or without envelope only count as unknown.
+ */
+@Slf4j
+public class FanInCallback implements MqttCallback {
+
+    private final SequenceTracker[] trackers;
+    private final LatencyRecorder latency = new LatencyRecorder();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong unknown = new AtomicLong();
+    private final AtomicLong conLostCount = new AtomicLong();
+    private volatile long lastNanos;
+
+    public FanInCallback(int publishers) {
+        this.trackers = new SequenceTracker[publishers];
+        for (int i = 0; i < publishers; i++) {
+            trackers[i] = new SequenceTracker();
+        }
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) throws Exception {
+        long now = System.nanoTime();
+        received.incrementAndGet();
+        lastNanos = now;
+        byte[] payload = message.getPayload();
+        int publisher = publisherOf(topic);
+        if (publisher < 0 || publisher >= trackers.length || !PayloadEnvelope.isEnveloped(payload)) {
+            unknown.incrementAndGet();
+            return;
+        }
+        long nanos = now - PayloadEnvelope.getSendNanos(payload);
+        latency.recordNanos(nanos);
+        LatencyStats.recordNanos(LatencyType.END_TO_END, nanos);
+        trackers[publisher].record((int) PayloadEnvelope.getSequence(payload));
+    }
+
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken token) {
+    }
+
+    @Override
+    public void connectionLost(Throwable cause) {
+        log.warn("Fan-in connection lost: {}", cause.getMessage());
+        conLostCount.incrementAndGet();
+    }
+
+    public SequenceTracker getTracker(int publisher) {
+        return trackers[publisher];
+    }
+
+    public LatencyRecorder getLatency() {
+        return latency;
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getUnknown() {
+        return unknown.get();
+    }
+
+    /**
+     * @return  System.nanoTime() of the last msg, 0 if none arrived
+     */
+    public long getLastNanos() {
+        return lastNanos;
+    }
+
+    public long getConLostCount() {
+        return conLostCount.get();
+    }
+
+    private static int publisherOf(String topic) {
+        try {
+            return Integer.parseInt(topic.substring(topic.lastIndexOf('/') + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
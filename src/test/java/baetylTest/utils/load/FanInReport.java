@@ -0,0 +1,50 @@
+package baetylTest.utils.load;
+
+import baetylTest.utils.perf.LatencyRecorder;
+
+import lombok.Data;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Result of one fan-in point: many publishers, each with its own sequence stream, into one subscriber
+ */
+@Data
+public class FanInReport {
+
+    private final int qos;
+    private final int publishers;
+    private int connected;
+    private long sent;
+    private long acked;
+    private long publishFailed;
+    private long received;
+    private long unknown;
+    private long connectionLost;
+    // From the first publish to the last msg received
+    private long elapsedMillis;
+    // Sent msgs never received, summed over the publishers
+    private long gaps;
+    private long duplicates;
+    private long reordered;
+    private int publishersWithGaps;
+    private int publishersReordered;
+    private long worstPublisherGaps;
+    // Publish to receive, microseconds
+    private Histogram latency;
+
+    /**
+     * Msgs received per second over all publishers
+     */
+    public double getThroughput() {
+        return elapsedMillis == 0 ? 0 : received * 1000.0 / elapsedMillis;
+    }
+
+    public String summary() {
+        return String.format("qos %d, %d/%d publishers, sent %d (acked %d, failed %d), received %d in %d ms = "
+                + "%.1f msg/s, gaps %d (%d publishers, worst %d), duplicates %d, reordered %d (%d publishers), "
+                + "unknown %d, connection lost %d, end to end %s", qos, connected, publishers, sent, acked,
+                publishFailed, received, elapsedMillis, getThroughput(), gaps, publishersWithGaps,
+                worstPublisherGaps, duplicates, reordered, publishersReordered, unknown, connectionLost,
+                latency == null ? "none" : LatencyRecorder.summary(latency));
+    }
+}
@@ -0,0 +1,71 @@
+package baetylTest.utils.load;
+
+import baetylTest.utils.perf.DeliverySkew;
+import baetylTest.utils.perf.LatencyRecorder;
+import baetylTest.utils.perf.LatencyStats;
+import baetylTest.utils.perf.LatencyType;
+import baetylTest.utils.perf.PayloadEnvelope;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * Callback of one fan-out subscriber, counts msgs and records their arrival into the shared skew and latency.
+ */
+@Slf4j
+public class FanOutCallback implements MqttCallback {
+
+    private final DeliverySkew skew;
+    private final LatencyRecorder latency;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong conLostCount = new AtomicLong();
+    private volatile long lastNanos;
+
+    public FanOutCallback(DeliverySkew skew, LatencyRecorder latency) {
+        this.skew = skew;
+        this.latency = latency;
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) throws Exception {
+        long now = System.nanoTime();
+        byte[] payload = message.getPayload();
+        if (PayloadEnvelope.isEnveloped(payload)) {
+            long nanos = now - PayloadEnvelope.getSendNanos(payload);
+            latency.recordNanos(nanos);
+            LatencyStats.recordNanos(LatencyType.END_TO_END, nanos);
+            skew.record(PayloadEnvelope.getSequence(payload), now);
+        }
+        lastNanos = now;
+        received.incrementAndGet();
+    }
+
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken token) {
+    }
+
+    @Override
+    public void connectionLost(Throwable cause) {
+        log.warn("Fan-out connection lost: {}", cause.getMessage());
+        conLostCount.incrementAndGet();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * @return  System.nanoTime() of the last msg, 0 if none arrived
+     */
+    public long getLastNanos() {
+        return lastNanos;
+    }
+
+    public long getConLostCount() {
+        return conLostCount.get();
+    }
+}
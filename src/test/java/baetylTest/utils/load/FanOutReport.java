@@ -0,0 +1,45 @@
+package baetylTest.utils.load;
+
+import baetylTest.utils.perf.LatencyRecorder;
+
+import lombok.Data;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Result of one fan-out point: one publisher, a number of subscribers on one kind of filter
+ */
+@Data
+public class FanOutReport {
+
+    private final String filter;
+    private final int subscribers;
+    private int connected;
+    private long published;
+    private long publishFailed;
+    private long received;
+    private long publishMillis;
+    private long connectionLost;
+    // Deliveries per second over all subscribers, from the first publish to the last msg received
+    private double deliveryRate;
+    // Per subscriber msgs/s from the first publish to its last msg
+    private double minSubscriberRate;
+    private double meanSubscriberRate;
+    private double maxSubscriberRate;
+    // Last minus first arrival of each msg over the subscribers, microseconds
+    private Histogram skew;
+    // Publish to receive of every delivery, microseconds
+    private Histogram latency;
+
+    public long getExpected() {
+        return published * connected;
+    }
+
+    public String summary() {
+        return String.format("%s filter, %d/%d subscribers, published %d (failed %d) in %d ms, received %d/%d, "
+                + "%.1f deliveries/s, per subscriber min %.1f mean %.1f max %.1f msg/s, connection lost %d, "
+                + "skew %s, end to end %s", filter, connected, subscribers, published, publishFailed,
+                publishMillis, received, getExpected(), getDeliveryRate(), minSubscriberRate, meanSubscriberRate,
+                maxSubscriberRate, connectionLost, skew == null ? "none" : LatencyRecorder.summary(skew),
+                latency == null ? "none" : LatencyRecorder.summary(latency));
+    }
+}
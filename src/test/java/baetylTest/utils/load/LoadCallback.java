@@ -0,0 +1,55 @@
+package baetylTest.utils.load;
+
+import baetylTest.utils.perf.LatencyStats;
+import baetylTest.utils.perf.LatencyType;
+import baetylTest.utils.perf.PayloadEnvelope;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * Counting only callback for load subscribers, keeps no msgs. Enveloped msgs are recorded as end to end latency.
+ */
+@Slf4j
+public class LoadCallback implements MqttCallback {
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong conLostCount = new AtomicLong();
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) throws Exception {
+        byte[] payload = message.getPayload();
+        received.incrementAndGet();
+        receivedBytes.addAndGet(payload.length);
+        if (PayloadEnvelope.isEnveloped(payload)) {
+            LatencyStats.recordNanos(LatencyType.END_TO_END, System.nanoTime() - PayloadEnvelope.getSendNanos(payload));
+        }
+    }
+
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken token) {
+    }
+
+    @Override
+    public void connectionLost(Throwable cause) {
+        log.warn("Load connection lost: {}", cause.getMessage());
+        conLostCount.incrementAndGet();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    public long getConLostCount() {
+        return conLostCount.get();
+    }
+}
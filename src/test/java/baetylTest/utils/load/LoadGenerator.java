@@ -0,0 +1,221 @@
+package baetylTest.utils.load;
+
+import baetylTest.utils.PubSubCommon;
+import baetylTest.utils.client.BulkConnector;
+import baetylTest.utils.client.ConnectionType;
+import baetylTest.utils.client.MqttConnection;
+import baetylTest.utils.client.SharedClientFactory;
+import baetylTest.utils.perf.LatencyStats;
+import baetylTest.utils.perf.PayloadSource;
+import baetylTest.utils.perf.ResourceUsage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+/**
+ * Load generator which starts many mqtt connections and publishes at an aggregate rate.
+ *
+ * Publishers send to topicPrefix/index, subscribers listen on topicPrefix/# so every subscriber
+ * should get every published msg, which is how loss is counted. Payloads come from a PayloadSource per
+ * publish thread, so the load client doesn't allocate per msg.
+ */
+@Slf4j
+public class LoadGenerator {
+
+    public static final String WILDCARD_SUFFIX = "/#";
+
+    private final LoadProfile profile;
+    private final List<MqttConnection> publishers = Collections.synchronizedList(new ArrayList<MqttConnection>());
+    private final List<String> publisherTopics = Collections.synchronizedList(new ArrayList<String>());
+    private final List<MqttConnection> subscribers = new ArrayList<MqttConnection>();
+    private final List<LoadCallback> subCallbacks = new ArrayList<LoadCallback>();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong publishFailed = new AtomicLong();
+    private SharedClientFactory clientFactory;
+
+    public LoadGenerator(LoadProfile profile) {
+        this.profile = profile;
+    }
+
+    public LoadReport run() throws Exception {
+        LoadReport report = new LoadReport();
+        ResourceUsage baseline = ResourceUsage.capture();
+        if (profile.isSharedClients()) {
+            clientFactory = new SharedClientFactory(profile.getConnections() + profile.getSubscribers());
+            log.info("Shared paho pool for {} connections still needs {} threads, {} per connection. Use the "
+                    + "fusesource fleet of EdgeDeviceFleetBenchmark for 10k+ devices", clientFactory
+                    .getMaxConnections(), clientFactory.getMaxConnections()
+                    * SharedClientFactory.THREADS_PER_CONNECTION, SharedClientFactory.THREADS_PER_CONNECTION);
+        }
+        try {
+            startSubscribers();
+            report.setSubscribers(subscribers.size());
+
+            long connectStart = System.currentTimeMillis();
+            report.setConnectAttempted(profile.getConnections());
+            report.setConnectSucceeded(connectPublishers());
+            report.setConnectMillis(System.currentTimeMillis() - connectStart);
+            log.info("Load publishers connected {}/{} in {} ms", report.getConnectSucceeded(),
+                    report.getConnectAttempted(), report.getConnectMillis());
+            int connected = report.getConnectSucceeded() + subscribers.size();
+            ResourceUsage usage = ResourceUsage.capture();
+            report.setThreads(usage.getThreads());
+            report.setHeapPerConnection((usage.getHeapUsed() - baseline.getHeapUsed()) / Math.max(1, connected));
+            log.info("Load client resources, {}", usage.perConnection(baseline, connected));
+
+            long publishStart = System.currentTimeMillis();
+            publish();
+            report.setPublishMillis(System.currentTimeMillis() - publishStart);
+            report.setPublished(published.get());
+            report.setPublishFailed(publishFailed.get());
+
+            waitForDrain();
+            long lost = 0;
+            for (LoadCallback callback : subCallbacks) {
+                report.setReceived(report.getReceived() + callback.getReceived());
+                report.setReceivedBytes(report.getReceivedBytes() + callback.getReceivedBytes());
+                lost += callback.getConLostCount();
+            }
+            report.setConnectionLost(lost);
+        } finally {
+            stop();
+        }
+        log.info("Load report: {}", report.summary());
+        LatencyStats.report();
+        return report;
+    }
+
+    public void stop() throws InterruptedException {
+        List<MqttConnection> connections = new ArrayList<MqttConnection>(publishers);
+        connections.addAll(subscribers);
+        new BulkConnector(Math.max(1, profile.getConnectThreads())).disconnectAll(connections);
+        publishers.clear();
+        subscribers.clear();
+        if (clientFactory != null) {
+            clientFactory.shutdown();
+            clientFactory = null;
+        }
+    }
+
+    private MqttConnection createConnection(ConnectionType type, String clientId) throws Exception {
+        MqttConnectOptions options = PubSubCommon.getDefaultConnectOptions(profile.getUsername(),
+                profile.getPassword());
+        options.setMaxInflight(profile.getMaxInflight());
+        String url = PubSubCommon.generateHostUrl(profile.getHostname(), type, profile.getPortMap());
+        if (clientFactory != null) {
+            return PubSubCommon.createMqttConnection(url, clientId, LoadProfile.isTls(type), profile.getCertPath(),
+                    options, clientFactory);
+        }
+        return PubSubCommon.createMqttConnection(url, clientId, LoadProfile.isTls(type), profile.getCertPath(),
+                options);
+    }
+
+    private void startSubscribers() throws Exception {
+        for (int i = 0; i < profile.getSubscribers(); i++) {
+            MqttConnection sub = createConnection(profile.getSubscriberType(),
+                    String.format("%s_sub_%s", profile.getClientIdPrefix(), i));
+            LoadCallback callback = new LoadCallback();
+            sub.getClient().setCallback(callback);
+            sub.connect();
+            PubSubCommon.subscribe(sub, profile.getTopicPrefix() + WILDCARD_SUFFIX, profile.getQos());
+            subscribers.add(sub);
+            subCallbacks.add(callback);
+        }
+    }
+
+    private int connectPublishers() throws Exception {
+        List<MqttConnection> created = new ArrayList<MqttConnection>();
+        for (int i = 0; i < profile.getConnections(); i++) {
+            created.add(createConnection(profile.typeOf(i), String.format("%s_pub_%s", profile.getClientIdPrefix(),
+                    i)));
+        }
+        new BulkConnector(Math.max(1, profile.getConnectThreads())).connectAll(created);
+
+        for (int i = 0; i < created.size(); i++) {
+            MqttConnection pub = created.get(i);
+            if (pub.getClient().isConnected()) {
+                publishers.add(pub);
+                publisherTopics.add(pub.getNamespace().topic(String.format("%s/%s", profile.getTopicPrefix(), i)));
+            }
+        }
+        return publishers.size();
+    }
+
+    private void publish() throws Exception {
+        if (publishers.isEmpty()) {
+            log.warn("No publisher connected, skip publishing");
+            return;
+        }
+        int workers = Math.max(1, Math.min(profile.getPublishThreads(), publishers.size()));
+        final double workerRate = profile.getRate() / workers;
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(profile.getDurationSeconds());
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        for (int w = 0; w < workers; w++) {
+            // Each worker owns every workers-th publisher
+            final List<Integer> slice = new ArrayList<Integer>();
+            for (int i = w; i < publishers.size(); i += workers) {
+                slice.add(i);
+            }
+            // Msgs are stamped in pooled buffers, the pool covers what the worker's publishers can have in flight
+            final PayloadSource source = new PayloadSource(profile.getPayloadSize(), (int) Math.min(
+                    profile.getPayloadPoolSize(), (long) slice.size() * profile.getMaxInflight() + 1));
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    publishLoop(slice, workerRate, deadline, source);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(profile.getDurationSeconds() + profile.getDrainSeconds(), TimeUnit.SECONDS);
+    }
+
+    private void publishLoop(List<Integer> slice, double rate, long deadline, PayloadSource source) {
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long next = System.nanoTime();
+        int round = 0;
+        while (next < deadline) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int index = slice.get(round++ % slice.size());
+            try {
+                // Stamped with the scheduled time, so end to end latency includes falling behind schedule
+                publishers.get(index).getClient().publish(publisherTopics.get(index), source.next(next),
+                        profile.getQos(), false);
+                published.incrementAndGet();
+            } catch (MqttException e) {
+                // Mostly max inflight reached or connection lost
+                publishFailed.incrementAndGet();
+            }
+            next += interval;
+        }
+    }
+
+    private void waitForDrain() throws Exception {
+        long expected = published.get() * subscribers.size();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(profile.getDrainSeconds());
+        while (System.currentTimeMillis() < deadline) {
+            long received = 0;
+            for (LoadCallback callback : subCallbacks) {
+                received += callback.getReceived();
+            }
+            if (received >= expected) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+    }
+}
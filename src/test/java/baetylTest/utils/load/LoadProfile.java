@@ -0,0 +1,93 @@
+package baetylTest.utils.load;
+
+import baetylTest.utils.client.ConnectionType;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.Data;
+
+/**
+ * Settings of one load generator run
+ */
+@Data
+public class LoadProfile {
+
+    public static final String TYPE_SEPARATOR = ",";
+    public static final String WEIGHT_SEPARATOR = ":";
+
+    private String hostname;
+    private Map<String, Integer> portMap;
+    private String certPath;
+    private String username;
+    private String password;
+
+    // Publisher connections, spread over typeMix by weight
+    private int connections = 100;
+    private Map<ConnectionType, Integer> typeMix = parseTypeMix("TCP");
+    // Subscribers on topicPrefix/#, every one of them is expected to receive every msg
+    private int subscribers = 1;
+    private ConnectionType subscriberType = ConnectionType.TCP;
+
+    // Aggregate publish rate of all publishers, msg/s
+    private double rate = 1000;
+    private long durationSeconds = 30;
+    private long drainSeconds = 10;
+    private int qos = 0;
+    private int payloadSize = 64;
+    // Cap of pooled payload buffers per publish thread, each thread pools its publishers' max inflight
+    private int payloadPoolSize = 4096;
+    private int maxInflight = 100;
+    private int publishThreads = 4;
+    private int connectThreads = 16;
+    // Run all connections on one shared paho pool instead of a pool and ping timer per client
+    private boolean sharedClients = false;
+    private String topicPrefix = "load/" + System.currentTimeMillis();
+    private String clientIdPrefix = "load_" + System.currentTimeMillis();
+
+    /**
+     * Parse connection type mix like "TCP:2,SSL:1,WS,WSS:0", weight defaults to 1
+     *
+     * @param mix  type mix string
+     * @return     type to weight map in declared order
+     */
+    public static Map<ConnectionType, Integer> parseTypeMix(String mix) {
+        Map<ConnectionType, Integer> result = new LinkedHashMap<ConnectionType, Integer>();
+        for (String item : mix.split(TYPE_SEPARATOR)) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            String[] pair = item.trim().split(WEIGHT_SEPARATOR);
+            int weight = pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1;
+            if (weight > 0) {
+                result.put(ConnectionType.valueOf(pair[0].trim().toUpperCase()), weight);
+            }
+        }
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException("No connection type in mix " + mix);
+        }
+        return result;
+    }
+
+    /**
+     * Connection type of the index-th publisher, weighted round robin over typeMix
+     */
+    public ConnectionType typeOf(int index) {
+        int total = 0;
+        for (int weight : typeMix.values()) {
+            total += weight;
+        }
+        int slot = index % total;
+        for (Map.Entry<ConnectionType, Integer> entry : typeMix.entrySet()) {
+            if (slot < entry.getValue()) {
+                return entry.getKey();
+            }
+            slot -= entry.getValue();
+        }
+        return typeMix.keySet().iterator().next();
+    }
+
+    public static boolean isTls(ConnectionType type) {
+        return ConnectionType.SSL.equals(type) || ConnectionType.WSS.equals(type);
+    }
+}
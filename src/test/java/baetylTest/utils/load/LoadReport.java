@@ -0,0 +1,53 @@
+package baetylTest.utils.load;
+
+import lombok.Data;
+
+/**
+ * Result of one load generator run
+ */
+@Data
+public class LoadReport {
+
+    private int connectAttempted;
+    private int connectSucceeded;
+    private long connectMillis;
+    private int subscribers;
+
+    private long published;
+    private long publishFailed;
+    private long publishMillis;
+    private long received;
+    private long receivedBytes;
+    private long connectionLost;
+    private int threads;
+    private long heapPerConnection;
+
+    public long getExpected() {
+        return published * subscribers;
+    }
+
+    public long getLost() {
+        return Math.max(0, getExpected() - received);
+    }
+
+    public double getLossRate() {
+        return getExpected() == 0 ? 0 : (double) getLost() / getExpected();
+    }
+
+    public double getPublishRate() {
+        return publishMillis == 0 ? 0 : published * 1000.0 / publishMillis;
+    }
+
+    public double getReceiveRate() {
+        return publishMillis == 0 ? 0 : received * 1000.0 / publishMillis;
+    }
+
+    public String summary() {
+        return String.format("connect %d/%d in %d ms, published %d (failed %d) in %d ms = %.1f msg/s, "
+                + "received %d/%d = %.1f msg/s (%d bytes), lost %d (%.2f%%), connection lost %d, "
+                + "threads %d, heap %d bytes per connection",
+                connectSucceeded, connectAttempted, connectMillis, published, publishFailed, publishMillis,
+                getPublishRate(), received, getExpected(), getReceiveRate(), receivedBytes, getLost(),
+                getLossRate() * 100, connectionLost, threads, heapPerConnection);
+    }
+}
@@ -0,0 +1,43 @@
+package baetylTest.utils.load;
+
+import baetylTest.utils.perf.LatencyRecorder;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import lombok.Data;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Result of one {@link ConnectionStorm} against one listener
+ */
+@Data
+public class StormReport {
+
+    private final String listener;
+    // Null when no client used tls
+    private TlsSessionMode tlsSessionMode;
+    private int attempted;
+    private int succeeded;
+    private int failed;
+    // From the first connect attempt to the last success
+    private long timeToAllConnectedMillis;
+    // Connect latency of the succeeded clients, tcp, tls and CONNACK included, microseconds
+    private Histogram handshake;
+    // Paho reason code, or -1 for failures without one, to count
+    private Map<Integer, Integer> failureCodes = new TreeMap<Integer, Integer>();
+
+    /**
+     * Accepted connections per second until the last one was accepted
+     */
+    public double getAcceptRate() {
+        return timeToAllConnectedMillis == 0 ? 0 : succeeded * 1000.0 / timeToAllConnectedMillis;
+    }
+
+    public String summary() {
+        return String.format("%s: connected %d/%d (failed %d %s), all connected in %d ms = %.1f conn/s, "
+                + "handshake %s, tls %s", listener, succeeded, attempted, failed, failureCodes,
+                timeToAllConnectedMillis, getAcceptRate(), handshake == null ? "none"
+                        : LatencyRecorder.summary(handshake), tlsSessionMode == null ? "none" : tlsSessionMode);
+    }
+}
@@ -0,0 +1,11 @@
+package baetylTest.utils.load;
+
+/**
+ * How the tls clients of a {@link ConnectionStorm} get their ssl context
+ */
+public enum TlsSessionMode {
+    // A context per client, every connect is a full handshake
+    FULL_HANDSHAKE,
+    // The shared context of SslContextCache, connects after the first may resume its session
+    SHARED_CACHE
+}
@@ -0,0 +1,76 @@
+package baetylTest.utils.perf;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Intended send times of an open-loop sender, fixed in advance and independent of how fast the hub answers.
+ *
+ * CONSTANT spaces sends evenly at the rate, POISSON draws exponential gaps with the rate as mean, which
+ * looks more like many independent devices.
+ */
+public class ArrivalSchedule {
+
+    public enum Kind {
+        CONSTANT, POISSON
+    }
+
+    private final Kind kind;
+    private final double rate;
+    private final double meanIntervalNanos;
+    private final Random random;
+
+    /**
+     * @param rate  msgs per second
+     * @param seed  seed of the poisson gaps, so runs can be repeated
+     */
+    public ArrivalSchedule(Kind kind, double rate, long seed) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + rate);
+        }
+        this.kind = kind;
+        this.rate = rate;
+        this.meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param kind  constant or poisson, case insensitive
+     */
+    public static ArrivalSchedule parse(String kind, double rate) {
+        return new ArrivalSchedule(Kind.valueOf(kind.trim().toUpperCase()), rate, System.nanoTime());
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return  mean gap between two sends, only the threshold for logging that a publisher fell behind. Latency
+     *          is measured from the scheduled send time already, so don't back-fill histograms with
+     *          recordValueWithExpectedInterval, stalls would count twice
+     */
+    public long getMeanIntervalNanos() {
+        return (long) meanIntervalNanos;
+    }
+
+    /**
+     * @return  gap between the previous intended send time and the next one
+     */
+    public long nextIntervalNanos() {
+        if (kind == Kind.CONSTANT) {
+            return (long) meanIntervalNanos;
+        }
+        // Inverse transform of the exponential distribution, 1 - u avoids log(0)
+        return (long) (-Math.log(1 - random.nextDouble()) * meanIntervalNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %.1f msg/s", kind, rate);
+    }
+}
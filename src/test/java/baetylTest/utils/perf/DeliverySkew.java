@@ -0,0 +1,57 @@
+package baetylTest.utils.perf;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * First and last arrival time of each msg of a fan-out, over all subscribers receiving it.
+ *
+ * Msgs are identified by the PayloadEnvelope sequence number, 1 to messages.
+ */
+public class DeliverySkew {
+
+    private final AtomicLongArray first;
+    private final AtomicLongArray last;
+
+    public DeliverySkew(int messages) {
+        this.first = new AtomicLongArray(messages + 1);
+        this.last = new AtomicLongArray(messages + 1);
+    }
+
+    /**
+     * Record that one subscriber got msg sequence at System.nanoTime() nanos, out of range sequences are ignored
+     */
+    public void record(long sequence, long nanos) {
+        if (sequence < 1 || sequence >= first.length()) {
+            return;
+        }
+        int index = (int) sequence;
+        // Subscribers race, the earliest timestamp must win rather than the first thread to get here
+        long current = first.get(index);
+        while ((current == 0 || nanos < current) && !first.compareAndSet(index, current, nanos)) {
+            current = first.get(index);
+        }
+        current = last.get(index);
+        while (nanos > current && !last.compareAndSet(index, current, nanos)) {
+            current = last.get(index);
+        }
+    }
+
+    /**
+     * @return  histogram of last minus first arrival of every msg received at least once, in micros
+     */
+    public Histogram snapshot() {
+        Histogram histogram = new Histogram(LatencyRecorder.HIGHEST_TRACKABLE_MICROS,
+                LatencyRecorder.SIGNIFICANT_DIGITS);
+        for (int i = 1; i < first.length(); i++) {
+            long start = first.get(i);
+            if (start != 0) {
+                long micros = TimeUnit.NANOSECONDS.toMicros(last.get(i) - start);
+                histogram.recordValue(Math.min(Math.max(micros, 0), LatencyRecorder.HIGHEST_TRACKABLE_MICROS));
+            }
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,68 @@
+package baetylTest.utils.perf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency histogram which can be recorded from any thread without locking.
+ *
+ * Values are kept in microseconds with 3 significant digits up to one hour. Recording is wait-free,
+ * only snapshot() synchronizes, and snapshots of different recorders can be merged with Histogram.add.
+ */
+public class LatencyRecorder {
+
+    public static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+    public static final int SIGNIFICANT_DIGITS = 3;
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    private final Histogram accumulated = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    private Histogram interval;
+
+    public void recordNanos(long nanos) {
+        recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordMillis(long millis) {
+        recordMicros(TimeUnit.MILLISECONDS.toMicros(millis));
+    }
+
+    public void recordMicros(long micros) {
+        recorder.recordValue(clamp(micros));
+    }
+
+    /**
+     * @return  copy of everything recorded since creation or last reset
+     */
+    public synchronized Histogram snapshot() {
+        interval = recorder.getIntervalHistogram(interval);
+        accumulated.add(interval);
+        return accumulated.copy();
+    }
+
+    public synchronized void reset() {
+        recorder.reset();
+        accumulated.reset();
+    }
+
+    public String summary() {
+        return summary(snapshot());
+    }
+
+    public static String summary(Histogram histogram) {
+        return String.format("count %d, p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+                histogram.getTotalCount(), toMillis(histogram.getValueAtPercentile(50)),
+                toMillis(histogram.getValueAtPercentile(99)), toMillis(histogram.getValueAtPercentile(99.9)),
+                toMillis(histogram.getMaxValue()));
+    }
+
+    private static double toMillis(long micros) {
+        return micros / MICROS_PER_MILLI;
+    }
+
+    private static long clamp(long micros) {
+        return Math.min(Math.max(micros, 0), HIGHEST_TRACKABLE_MICROS);
+    }
+}
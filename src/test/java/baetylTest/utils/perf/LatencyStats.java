@@ -0,0 +1,44 @@
+package baetylTest.utils.perf;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Process wide latency recorders, one per {@link LatencyType}.
+ *
+ * The map is filled once and never changed, so lookups need no lock.
+ */
+@Slf4j
+public class LatencyStats {
+
+    private static final Map<LatencyType, LatencyRecorder> RECORDERS =
+            new EnumMap<LatencyType, LatencyRecorder>(LatencyType.class);
+
+    static {
+        for (LatencyType type : LatencyType.values()) {
+            RECORDERS.put(type, new LatencyRecorder());
+        }
+    }
+
+    public static LatencyRecorder get(LatencyType type) {
+        return RECORDERS.get(type);
+    }
+
+    public static void recordNanos(LatencyType type, long nanos) {
+        RECORDERS.get(type).recordNanos(nanos);
+    }
+
+    public static void reset() {
+        for (LatencyRecorder recorder : RECORDERS.values()) {
+            recorder.reset();
+        }
+    }
+
+    public static void report() {
+        for (Map.Entry<LatencyType, LatencyRecorder> entry : RECORDERS.entrySet()) {
+            log.info("Latency {}: {}", entry.getKey(), entry.getValue().summary());
+        }
+    }
+}
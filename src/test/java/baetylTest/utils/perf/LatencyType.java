@@ -0,0 +1,8 @@
+package baetylTest.utils.perf;
+
+/**
+ * Operations whose latency is recorded by {@link LatencyStats}
+ */
+public enum LatencyType {
+    CONNECT, DISCONNECT, SUBSCRIBE, PUBLISH_ACK, END_TO_END, RECOVERY
+}
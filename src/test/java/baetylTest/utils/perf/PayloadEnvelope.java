@@ -0,0 +1,74 @@
+package baetylTest.utils.perf;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary envelope put in front of a payload to measure publish to receive latency.
+ *
+ * Layout: 2 magic bytes, 8 bytes sequence number, 8 bytes System.nanoTime() at send, then the original
+ * payload. 0xBE can never start a valid utf-8 string, so normal payloads are never mistaken for envelopes.
+ * The timestamp only makes sense when publisher and subscriber run in the same JVM, which is how this
+ * harness runs. Don't enable it for msgs going through rule functions, they expect plain json.
+ */
+public class PayloadEnvelope {
+
+    public static final byte MAGIC_0 = (byte) 0xBE;
+    public static final byte MAGIC_1 = (byte) 0x7A;
+    public static final int SEQUENCE_OFFSET = 2;
+    public static final int TIMESTAMP_OFFSET = 10;
+    public static final int HEADER_LENGTH = 18;
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static volatile boolean enabled = false;
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn on/off wrapping of msgs published through PubSubCommon
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static byte[] wrap(byte[] body) {
+        return wrap(body, System.nanoTime());
+    }
+
+    /**
+     * @param sendNanos  System.nanoTime() to measure from, e.g. the intended send time of an open-loop sender
+     */
+    public static byte[] wrap(byte[] body, long sendNanos) {
+        byte[] result = new byte[HEADER_LENGTH + body.length];
+        stamp(result, 0, SEQUENCE.incrementAndGet(), sendNanos);
+        System.arraycopy(body, 0, result, HEADER_LENGTH, body.length);
+        return result;
+    }
+
+    /**
+     * Write the header into buffer at offset, the body is expected right after it
+     */
+    public static void stamp(byte[] buffer, int offset, long sequence, long sendNanos) {
+        ByteBuffer header = ByteBuffer.wrap(buffer, offset, HEADER_LENGTH);
+        header.put(MAGIC_0).put(MAGIC_1).putLong(sequence).putLong(sendNanos);
+    }
+
+    public static boolean isEnveloped(byte[] payload) {
+        return payload.length >= HEADER_LENGTH && payload[0] == MAGIC_0 && payload[1] == MAGIC_1;
+    }
+
+    public static long getSequence(byte[] payload) {
+        return ByteBuffer.wrap(payload).getLong(SEQUENCE_OFFSET);
+    }
+
+    public static long getSendNanos(byte[] payload) {
+        return ByteBuffer.wrap(payload).getLong(TIMESTAMP_OFFSET);
+    }
+
+    public static String getBody(byte[] payload, String charset) throws UnsupportedEncodingException {
+        return new String(payload, HEADER_LENGTH, payload.length - HEADER_LENGTH, charset);
+    }
+}
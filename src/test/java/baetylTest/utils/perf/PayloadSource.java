@@ -0,0 +1,99 @@
+package baetylTest.utils.perf;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fusesource.hawtbuf.Buffer;
+
+/**
+ * Ring of pre-generated payload buffers for load publishers, so publishing a msg allocates no payload.
+ *
+ * Buffers are laid out as a PayloadEnvelope followed by a filler body, next() stamps the sequence number and
+ * send time into the next buffer of the ring in place. Below PayloadEnvelope.HEADER_LENGTH bytes buffers are
+ * plain filler and never stamped.
+ *
+ * Neither paho nor fusesource copies the payload, the buffer is written to the socket as it is when the
+ * msg's turn comes. Size the pool above the msgs that may be queued or in flight at once on all
+ * connections sharing the source, otherwise a msg still waiting may be stamped again by a later one. Its
+ * length never changes, so only the latency and sequence of such msgs are off, not the packet.
+ */
+public class PayloadSource {
+
+    private static final byte FILLER = 'x';
+
+    private final byte[][] buffers;
+    private final Buffer[] wrappers;
+    private final boolean stamped;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param size      payload length in bytes, envelope included
+     * @param poolSize  number of buffers in the ring
+     */
+    public PayloadSource(int size, int poolSize) {
+        if (size < 0 || poolSize < 1) {
+            throw new IllegalArgumentException(String.format("Invalid payload size %s or pool size %s", size,
+                    poolSize));
+        }
+        this.stamped = size >= PayloadEnvelope.HEADER_LENGTH;
+        this.buffers = new byte[poolSize][];
+        this.wrappers = new Buffer[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            byte[] buffer = new byte[size];
+            Arrays.fill(buffer, FILLER);
+            buffers[i] = buffer;
+            wrappers[i] = new Buffer(buffer);
+        }
+    }
+
+    public int getSize() {
+        return buffers[0].length;
+    }
+
+    public int getPoolSize() {
+        return buffers.length;
+    }
+
+    public boolean isStamped() {
+        return stamped;
+    }
+
+    /**
+     * @return  sequence number of the last msg taken, msgs are numbered from 1
+     */
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * Take the next buffer for a paho publish, stamped with the current time
+     */
+    public byte[] next() {
+        return buffers[take(System.nanoTime())];
+    }
+
+    /**
+     * Take the next buffer for a paho publish
+     *
+     * @param sendNanos  System.nanoTime() to measure latency from, e.g. the intended send time
+     */
+    public byte[] next(long sendNanos) {
+        return buffers[take(sendNanos)];
+    }
+
+    /**
+     * Take the next buffer for a fusesource publish, stamped with the current time
+     */
+    public Buffer nextBuffer() {
+        return wrappers[take(System.nanoTime())];
+    }
+
+    private int take(long sendNanos) {
+        long next = sequence.incrementAndGet();
+        int slot = (int) (next % buffers.length);
+        if (stamped) {
+            PayloadEnvelope.stamp(buffers[slot], 0, next, sendNanos);
+        }
+        return slot;
+    }
+}
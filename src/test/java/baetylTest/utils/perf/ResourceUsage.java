@@ -0,0 +1,56 @@
+package baetylTest.utils.perf;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Thread count and used heap of this JVM at one point, compared against a baseline to get the cost
+ * of each simulated connection
+ */
+public class ResourceUsage {
+
+    private static final long GC_SETTLE_MILLIS = 200;
+    private static final double BYTES_PER_KB = 1024.0;
+
+    private final int threads;
+    private final long heapUsed;
+
+    private ResourceUsage(int threads, long heapUsed) {
+        this.threads = threads;
+        this.heapUsed = heapUsed;
+    }
+
+    /**
+     * Snapshot after a gc, so heap used is mostly live objects
+     */
+    public static ResourceUsage capture() {
+        System.gc();
+        try {
+            Thread.sleep(GC_SETTLE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new ResourceUsage(ManagementFactory.getThreadMXBean().getThreadCount(),
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getHeapUsed() {
+        return heapUsed;
+    }
+
+    /**
+     * @return  threads and heap added since baseline, in total and per connection
+     */
+    public String perConnection(ResourceUsage baseline, int connections) {
+        int addedThreads = threads - baseline.threads;
+        long addedHeap = heapUsed - baseline.heapUsed;
+        int count = Math.max(1, connections);
+        return String.format("%d connections: threads %d (+%d, %.2f per connection), heap %.1f MB "
+                        + "(+%.1f MB, %.1f KB per connection)", connections, threads, addedThreads,
+                (double) addedThreads / count, heapUsed / BYTES_PER_KB / BYTES_PER_KB,
+                addedHeap / BYTES_PER_KB / BYTES_PER_KB, addedHeap / BYTES_PER_KB / count);
+    }
+}
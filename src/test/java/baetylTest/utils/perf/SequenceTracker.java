@@ -0,0 +1,77 @@
+package baetylTest.utils.perf;
+
+import java.util.BitSet;
+
+/**
+ * Tracks sequence numbers of one stream to count duplicates, gaps and reordering.
+ *
+ * The sender marks what it got acked with {@link #record} on its own tracker, the receiver marks what arrived,
+ * and {@link #countMissing} tells how many acked msgs never arrived. A seq arriving for the first time below the
+ * highest seq seen so far counts as reordered.
+ */
+public class SequenceTracker {
+
+    private final BitSet seen = new BitSet();
+    private long received;
+    private long duplicates;
+    private long reordered;
+    private int highest;
+
+    /**
+     * @return  false if seq was seen before
+     */
+    public synchronized boolean record(int seq) {
+        received++;
+        if (seen.get(seq)) {
+            duplicates++;
+            return false;
+        }
+        seen.set(seq);
+        if (seq < highest) {
+            reordered++;
+        } else {
+            highest = seq;
+        }
+        return true;
+    }
+
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    public synchronized long getReordered() {
+        return reordered;
+    }
+
+    public synchronized int getHighest() {
+        return highest;
+    }
+
+    public synchronized int getUnique() {
+        return seen.cardinality();
+    }
+
+    /**
+     * @return  how many seqs recorded by expected were never recorded here
+     */
+    public long countMissing(SequenceTracker expected) {
+        BitSet missing = expected.snapshot();
+        missing.andNot(snapshot());
+        return missing.cardinality();
+    }
+
+    /**
+     * @return  how many of the seqs 1 to last were never recorded
+     */
+    public synchronized long countMissing(int last) {
+        return last < 1 ? 0 : last - seen.get(1, last + 1).cardinality();
+    }
+
+    public synchronized BitSet snapshot() {
+        return (BitSet) seen.clone();
+    }
+}